@@ -0,0 +1,159 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+
+
+/**
+ * Options of the agent. Options are passed as agent arguments separated by `;`:
+ *
+ * ```
+ * -javaagent:contracts-agent.jar=include=com.example,org.example;exclude=com.example.generated
+ * ```
+ *
+ * Alternatively (or additionally), the option `config` specifies a properties file
+ * containing the options. Options given as agent arguments override the ones from the
+ * configuration file.
+ *
+ * Recognised options:
+ *
+ * `include`
+ * :   A comma separated list of packages to be instrumented, including their
+ *     sub-packages. If omitted, all packages are included.
+ *
+ * `exclude`
+ * :   A comma separated list of packages never to be instrumented, including their
+ *     sub-packages. The JDK and the runtime of the contracts are always excluded.
+ *
+ * `cache`
+ * :   A directory for a persistent cache of instrumented classes (see
+ *     {@link BytecodeCache}). The directory may be shared by several JVMs.
+ *
+ * `violationQueueSize`
+ * :   The capacity of the queue of violations waiting to be reported. Violations are
+ *     dropped if the queue is full.
+ *
+ * `maxViolationLogRate`
+ * :   The maximum number of violations logged per second.
+ *
+ * `violationExemplars`
+ * :   The number of first and last violations kept per contract site.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class AgentOptions {
+
+    static final String CONFIG = "config";
+    static final String INCLUDE = "include";
+    static final String EXCLUDE = "exclude";
+    static final String CACHE = "cache";
+    static final String VIOLATION_QUEUE_SIZE = "violationQueueSize";
+    static final String MAX_VIOLATION_LOG_RATE = "maxViolationLogRate";
+    static final String VIOLATION_EXEMPLARS = "violationExemplars";
+
+    private final Properties options;
+
+    private AgentOptions(Properties options) {
+        this.options = options;
+    }
+
+    @NotNull
+    static AgentOptions parse(@Nullable String args) throws IOException {
+        Properties argOptions = new Properties();
+        if ( args != null ) {
+            for ( String option : args.split(";") ) {
+                option = option.trim();
+                if ( option.isEmpty() ) {
+                    continue;
+                }
+                int pos = option.indexOf('=');
+                if ( pos < 0 ) {
+                    argOptions.setProperty(option, "true");
+                }
+                else {
+                    argOptions.setProperty(option.substring(0, pos).trim(), option.substring(pos + 1).trim());
+                }
+            }
+        }
+        Properties options = new Properties();
+        String config = argOptions.getProperty(CONFIG);
+        if ( config != null ) {
+            try ( InputStream input = new FileInputStream(config) ) {
+                options.load(input);
+            }
+        }
+        options.putAll(argOptions);
+        return new AgentOptions(options);
+    }
+
+    @Nullable
+    String get(@NotNull String name) {
+        return options.getProperty(name);
+    }
+
+    int getInt(@NotNull String name, int defaultValue) {
+        String value = options.getProperty(name);
+        if ( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        }
+        catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException("Illegal value for option " + name + ": " + value, e);
+        }
+    }
+
+    double getDouble(@NotNull String name, double defaultValue) {
+        String value = options.getProperty(name);
+        if ( value == null ) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        }
+        catch ( NumberFormatException e ) {
+            throw new IllegalArgumentException("Illegal value for option " + name + ": " + value, e);
+        }
+    }
+
+    @NotNull
+    List<String> getList(@NotNull String name) {
+        String value = options.getProperty(name);
+        if ( value == null ) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>();
+        for ( String element : value.split(",") ) {
+            element = element.trim();
+            if ( !element.isEmpty() ) {
+                list.add(element);
+            }
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.internal.Log;
+
+
+/**
+ * A persistent, content-addressed cache of instrumented class files. The key is the
+ * SHA-1 of the agent version, the {@link #FORMAT_VERSION} and the original class file,
+ * so the cache doesn't need to be invalidated when the agent is updated, and it may be
+ * shared by any number of JVMs running the same code. Development builds all share the
+ * same agent version, the format version is what keeps them from using stale
+ * instrumented classes.
+ *
+ * The cache is a single append-only file of records:
+ *
+ * ```
+ * key (20 bytes) | length (int) | class file (length bytes)
+ * ```
+ *
+ * The file is scanned once on startup to build an in-memory index of offsets, lookups
+ * are positional reads on a `FileChannel`, which may be used concurrently. Appends are
+ * protected by a `FileLock` for other JVMs using the same cache. Before appending, we
+ * index the records other JVMs may have appended in the meantime.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class BytecodeCache {
+
+    /**
+     * Increment this whenever the instrumentation changes.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final String FILE_NAME = "instrumented-classes.dat";
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+    private static final int KEY_LENGTH = 20;
+    private static final int HEADER_LENGTH = KEY_LENGTH + 4;
+
+    private final Log log = Log.getInstance();
+    private final byte[] version;
+    private final FileChannel channel;
+    private final ConcurrentMap<ByteBuffer, Entry> index = new ConcurrentHashMap<>();
+    private long indexedSize = 0;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    private BytecodeCache(@NotNull String version, @NotNull FileChannel channel) {
+        this.version = version.getBytes(StandardCharsets.UTF_8);
+        this.channel = channel;
+    }
+
+    @NotNull
+    static BytecodeCache open(@NotNull File directory, @NotNull String version) throws IOException {
+        if ( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new IOException("Cannot create cache directory " + directory);
+        }
+        FileChannel channel = FileChannel.open(new File(directory, FILE_NAME).toPath(),
+                                               StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        BytecodeCache cache = new BytecodeCache(version, channel);
+        try ( FileLock ignored = channel.lock() ) {
+            synchronized ( cache ) {
+                cache.indexNewRecords();
+            }
+        }
+        catch ( IOException | RuntimeException e ) {
+            channel.close();
+            throw e;
+        }
+        return cache;
+    }
+
+    /**
+     * Compute the key for the given class file.
+     */
+    @NotNull
+    ByteBuffer key(@NotNull byte[] classFile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            throw new IllegalStateException("Digest algorithm " + DIGEST_ALGORITHM + " not available", e);
+        }
+        digest.update(version);
+        digest.update(ByteBuffer.allocate(4).putInt(FORMAT_VERSION).array());
+        digest.update(classFile);
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * Look up the instrumented class file for the given key.
+     *
+     * @return The instrumented class file or `null`, if it's not in the cache.
+     */
+    @Nullable
+    byte[] get(@NotNull ByteBuffer key) {
+        Entry entry = index.get(key);
+        if ( entry == null ) {
+            missCount.increment();
+            return null;
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            readFully(buffer, entry.offset);
+            hitCount.increment();
+            return buffer.array();
+        }
+        catch ( IOException e ) {
+            log.error("Error reading class from bytecode cache", e);
+            index.remove(key, entry);
+            missCount.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Add an instrumented class file to the cache. Errors are logged, the cache is
+     * considered an optimisation only.
+     */
+    void put(@NotNull ByteBuffer key, @NotNull byte[] classFile) {
+        if ( index.containsKey(key) ) {
+            return;
+        }
+        try {
+            synchronized ( this ) {
+                try ( FileLock ignored = channel.lock() ) {
+                    indexNewRecords();
+                    if ( index.containsKey(key) ) {
+                        return;
+                    }
+                    long offset = indexedSize;
+                    ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + classFile.length);
+                    record.put(key.duplicate()).putInt(classFile.length).put(classFile).flip();
+                    long position = offset;
+                    while ( record.hasRemaining() ) {
+                        position += channel.write(record, position);
+                    }
+                    indexedSize = position;
+                    index.put(key, new Entry(offset + HEADER_LENGTH, classFile.length));
+                }
+            }
+        }
+        catch ( IOException e ) {
+            log.error("Error writing class to bytecode cache", e);
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Index the records appended to the file since we last looked. Must be called while
+     * holding both the monitor and the file lock. As nobody else can be writing while
+     * we're holding the lock, an incomplete record at the end of the file is a torn
+     * record of a JVM that died while writing and is truncated.
+     */
+    private void indexNewRecords() throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while ( indexedSize + HEADER_LENGTH <= size ) {
+            header.clear();
+            readFully(header, indexedSize);
+            header.flip();
+            byte[] key = new byte[KEY_LENGTH];
+            header.get(key);
+            int length = header.getInt();
+            if ( length < 0 || indexedSize + HEADER_LENGTH + length > size ) {
+                break;
+            }
+            index.putIfAbsent(ByteBuffer.wrap(key), new Entry(indexedSize + HEADER_LENGTH, length));
+            indexedSize += HEADER_LENGTH + length;
+        }
+        if ( indexedSize < size ) {
+            log.info("Truncating torn record at the end of the bytecode cache (%d bytes)", size - indexedSize);
+            channel.truncate(indexedSize);
+        }
+    }
+
+    private void readFully(@NotNull ByteBuffer buffer, long position) throws IOException {
+        while ( buffer.hasRemaining() ) {
+            int count = channel.read(buffer, position);
+            if ( count < 0 ) {
+                throw new EOFException();
+            }
+            position += count;
+        }
+    }
+
+    private static final class Entry {
+        private final long offset;
+        private final int length;
+        private Entry(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.nio.charset.StandardCharsets;
+
+import ch.raffael.contracts.NotNull;
+
+
+/**
+ * Scans raw class files for references to contracts before any parsing happens. A class
+ * under contract contains either the descriptor of the `@UnderContract` annotation or a
+ * reference to its companion class `Foo$$ch$raffael$contracts` in its constant pool. As
+ * both are stored as plain UTF-8 in the constant pool, it's sufficient to search the
+ * bytes for them.
+ *
+ * Both names contain `raffael`, so we search for that using Boyer-Moore-Horspool and
+ * only check the full names on a match.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ClassFileScanner {
+
+    private static final byte[] ANCHOR = ascii("raffael");
+    private static final byte[] UNDER_CONTRACT = ascii(Transformer.UNDER_CONTRACT_DESC);
+    private static final byte[] COMPANION = ascii("$$ch$raffael$contracts");
+    private static final int UNDER_CONTRACT_ANCHOR_OFFSET = indexOf(UNDER_CONTRACT, ANCHOR);
+    private static final int COMPANION_ANCHOR_OFFSET = indexOf(COMPANION, ANCHOR);
+
+    private static final int[] SHIFT = new int[256];
+    static {
+        for ( int i = 0; i < SHIFT.length; i++ ) {
+            SHIFT[i] = ANCHOR.length;
+        }
+        for ( int i = 0; i < ANCHOR.length - 1; i++ ) {
+            SHIFT[ANCHOR[i] & 0xff] = ANCHOR.length - 1 - i;
+        }
+    }
+
+    private ClassFileScanner() {
+    }
+
+    /**
+     * Check whether the given class file may be under contract. If this method returns
+     * `false`, the class is definitely not under contract.
+     */
+    static boolean mayBeUnderContract(@NotNull byte[] classFile) {
+        int last = ANCHOR.length - 1;
+        int pos = 0;
+        while ( pos + last < classFile.length ) {
+            int i = last;
+            while ( classFile[pos + i] == ANCHOR[i] ) {
+                if ( i == 0 ) {
+                    if ( matchesAt(classFile, pos - UNDER_CONTRACT_ANCHOR_OFFSET, UNDER_CONTRACT)
+                            || matchesAt(classFile, pos - COMPANION_ANCHOR_OFFSET, COMPANION) ) {
+                        return true;
+                    }
+                    break;
+                }
+                i--;
+            }
+            pos += SHIFT[classFile[pos + last] & 0xff];
+        }
+        return false;
+    }
+
+    private static boolean matchesAt(byte[] classFile, int offset, byte[] pattern) {
+        if ( offset < 0 || offset + pattern.length > classFile.length ) {
+            return false;
+        }
+        for ( int i = 0; i < pattern.length; i++ ) {
+            if ( classFile[offset + i] != pattern[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(byte[] pattern, byte[] anchor) {
+        outer:
+        for ( int i = 0; i <= pattern.length - anchor.length; i++ ) {
+            for ( int j = 0; j < anchor.length; j++ ) {
+                if ( pattern[i + j] != anchor[j] ) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new IllegalArgumentException("Anchor not found");
+    }
+
+    private static byte[] ascii(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ch.raffael.contracts.NotNull;
+
+
+/**
+ * Decides by the name of a class whether the agent should look at it at all. Works on
+ * internal class names, i.e. the names the agent gets from the JVM.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ClassFilter {
+
+    static final List<String> DEFAULT_EXCLUDES = Arrays.asList(
+            "java", "javax", "jdk", "sun", "com.sun", "org.objectweb.asm",
+            "ch.raffael.contracts.agent", "ch.raffael.contracts.internal");
+
+    private final String[] includes;
+    private final String[] excludes;
+
+    ClassFilter(@NotNull List<String> includes, @NotNull List<String> excludes) {
+        this.includes = toPrefixes(includes);
+        String[] userExcludes = toPrefixes(excludes);
+        String[] defaultExcludes = toPrefixes(DEFAULT_EXCLUDES);
+        this.excludes = Arrays.copyOf(defaultExcludes, defaultExcludes.length + userExcludes.length);
+        System.arraycopy(userExcludes, 0, this.excludes, defaultExcludes.length, userExcludes.length);
+    }
+
+    @NotNull
+    static ClassFilter fromOptions(@NotNull AgentOptions options) {
+        return new ClassFilter(options.getList(AgentOptions.INCLUDE), options.getList(AgentOptions.EXCLUDE));
+    }
+
+    /**
+     * @param className The internal name of the class.
+     */
+    boolean accept(@NotNull String className) {
+        for ( String exclude : excludes ) {
+            if ( className.startsWith(exclude) ) {
+                return false;
+            }
+        }
+        if ( includes.length == 0 ) {
+            return true;
+        }
+        for ( String include : includes ) {
+            if ( className.startsWith(include) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @NotNull
+    private static String[] toPrefixes(@NotNull List<String> packages) {
+        String[] prefixes = new String[packages.size()];
+        for ( int i = 0; i < prefixes.length; i++ ) {
+            String pkg = packages.get(i);
+            if ( pkg.endsWith(".*") ) {
+                pkg = pkg.substring(0, pkg.length() - 2);
+            }
+            prefixes[i] = pkg.replace('.', '/') + "/";
+        }
+        return prefixes;
+    }
+
+}
@@ -15,17 +15,21 @@
  */
 package ch.raffael.contracts.agent;
 
+import java.io.File;
 import java.lang.instrument.Instrumentation;
 import java.lang.management.ManagementFactory;
-import java.util.WeakHashMap;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
-
-import javassist.ClassPool;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
 
 import ch.raffael.contracts.ContractViolationError;
 import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.internal.ContractSite;
 import ch.raffael.contracts.internal.ContractsContext;
 import ch.raffael.contracts.internal.Log;
 
@@ -40,7 +44,9 @@ public final class ContractsManager implements ContractsManagerMBean {
 
     private final Log log = Log.getInstance();
     private Instrumentation instrumentation = null;
-    private final WeakHashMap<ClassLoader, ClassPool> classPools = new WeakHashMap<ClassLoader, ClassPool>();
+    private volatile Transformer transformer = null;
+    private volatile ViolationReporter violationReporter = null;
+    private final Set<ContractSite> downgradedSites = Collections.newSetFromMap(new ConcurrentHashMap<ContractSite, Boolean>());
 
     private ContractsManager() {
         MBeanServer server = ManagementFactory.getPlatformMBeanServer();
@@ -54,14 +60,71 @@ public final class ContractsManager implements ContractsManagerMBean {
     }
 
     public static void premain(String args, Instrumentation instrumentation) {
-        getInstance().instrumentation = instrumentation;
-        instrumentation.addTransformer(new Transformer());
+        ContractsManager manager = getInstance();
+        AgentOptions options;
+        try {
+            options = AgentOptions.parse(args);
+        }
+        catch ( Exception e ) {
+            manager.log.error("Error reading agent options '%s', contracts will not be instrumented", e, args);
+            return;
+        }
+        BytecodeCache cache = null;
+        String cacheDirectory = options.get(AgentOptions.CACHE);
+        if ( cacheDirectory != null ) {
+            try {
+                cache = BytecodeCache.open(new File(cacheDirectory), getVersion());
+                manager.log.info("Using bytecode cache in %s (%d classes)", cacheDirectory, cache.size());
+            }
+            catch ( Exception e ) {
+                manager.log.error("Error opening bytecode cache in %s, continuing without cache", e, cacheDirectory);
+            }
+        }
+        ViolationReporter violationReporter;
+        try {
+            violationReporter = new ViolationReporter(
+                    options.getInt(AgentOptions.VIOLATION_QUEUE_SIZE, ViolationReporter.DEFAULT_QUEUE_SIZE),
+                    options.getDouble(AgentOptions.MAX_VIOLATION_LOG_RATE, ViolationReporter.DEFAULT_MAX_LOG_RATE),
+                    options.getInt(AgentOptions.VIOLATION_EXEMPLARS, ViolationReporter.DEFAULT_EXEMPLARS));
+        }
+        catch ( IllegalArgumentException e ) {
+            manager.log.error("Illegal violation reporting options, using defaults", e);
+            violationReporter = new ViolationReporter(
+                    ViolationReporter.DEFAULT_QUEUE_SIZE, ViolationReporter.DEFAULT_MAX_LOG_RATE, ViolationReporter.DEFAULT_EXEMPLARS);
+        }
+        violationReporter.start();
+        manager.violationReporter = violationReporter;
+        manager.instrumentation = instrumentation;
+        manager.transformer = new Transformer(ClassFilter.fromOptions(options), cache);
+        instrumentation.addTransformer(manager.transformer, true);
+        // ContractsContext may already have been loaded while verifying this class;
+        // the transformer only changes method bodies, so we can simply retransform it
+        for ( Class<?> loaded : instrumentation.getAllLoadedClasses() ) {
+            if ( loaded.getName().equals(Transformer.CONTRACTS_CONTEXT.replace('/', '.')) ) {
+                try {
+                    instrumentation.retransformClasses(loaded);
+                }
+                catch ( Exception e ) {
+                    manager.log.error("Error retransforming %s", e, loaded);
+                }
+            }
+        }
     }
 
     public static ContractsManager getInstance() {
         return INSTANCE;
     }
 
+    /**
+     * The version of the agent as given in the manifest, `"dev"` if it's unknown (e.g.
+     * when running from the IDE).
+     */
+    @NotNull
+    public static String getVersion() {
+        String version = ContractsManager.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+
     @Override
     public void enable(@NotNull String name) {
         if ( name == null ) throw new NullPointerException("name");
@@ -75,20 +138,176 @@ public final class ContractsManager implements ContractsManagerMBean {
     }
 
     @Override
-    public void isEnabled(@NotNull String name) {
+    public boolean isEnabled(@NotNull String name) {
         if ( name == null ) throw new NullPointerException("name");
-        ContractsContext.getContext(name).isEnabled();
+        return ContractsContext.getContext(name).isEnabled();
     }
 
-    public void reportViolation(@NotNull ContractsContext context, @NotNull ContractViolationError violation) {
+    @Override
+    public void setSamplingRate(@NotNull String name, int rate) {
+        if ( name == null ) throw new NullPointerException("name");
+        ContractsContext.getContext(name).setSamplingRate(rate);
+    }
+
+    @Override
+    public int getSamplingRate(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        return ContractsContext.getContext(name).getSamplingRate();
+    }
+
+    @Override
+    public void setTimeBudget(@NotNull String name, long nanos) {
+        if ( name == null ) throw new NullPointerException("name");
+        ContractsContext.getContext(name).setTimeBudget(nanos);
+    }
+
+    @Override
+    public long getTimeBudget(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        return ContractsContext.getContext(name).getTimeBudget();
+    }
+
+    @Override
+    public void setReportOnly(@NotNull String name, boolean reportOnly) {
+        if ( name == null ) throw new NullPointerException("name");
+        ContractsContext.getContext(name).setReportOnly(reportOnly);
+    }
+
+    @Override
+    public boolean isReportOnly(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        return ContractsContext.getContext(name).isReportOnly();
+    }
+
+    @Override
+    public void setCaptureStackTraces(@NotNull String name, boolean captureStackTraces) {
+        if ( name == null ) throw new NullPointerException("name");
+        ContractsContext.getContext(name).setCaptureStackTraces(captureStackTraces);
+    }
+
+    @Override
+    public boolean isCaptureStackTraces(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        return ContractsContext.getContext(name).isCaptureStackTraces();
+    }
+
+    @Override
+    public void setReuseViolations(@NotNull String name, @NotNull String id, boolean reuse) {
+        if ( name == null ) throw new NullPointerException("name");
+        if ( id == null ) throw new NullPointerException("id");
+        ContractSite site = ContractsContext.getContext(name).findSite(id);
+        if ( site == null ) {
+            throw new IllegalArgumentException("No contract " + id + " in " + name);
+        }
+        site.setReuseViolations(reuse);
+    }
+
+    @Override
+    public long getViolationCount(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        ViolationReporter reporter = violationReporter;
+        return reporter == null ? 0 : reporter.getViolationCount(name);
+    }
+
+    @Override
+    public long getDroppedViolationCount() {
+        ViolationReporter reporter = violationReporter;
+        return reporter == null ? 0 : reporter.getDroppedCount();
+    }
+
+    @Override
+    public CompositeData[] getViolationStatistics() throws OpenDataException {
+        ViolationReporter reporter = violationReporter;
+        return reporter == null ? new CompositeData[0] : reporter.getStatistics();
+    }
+
+    @Override
+    public String[] getContractStatistics(@NotNull String name) {
+        if ( name == null ) throw new NullPointerException("name");
+        return ContractsContext.getContext(name).getSites().stream()
+                .map(ContractSite::toString)
+                .sorted()
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public String[] getDowngradedContracts() {
+        return downgradedSites.stream()
+                .map(ContractSite::toString)
+                .sorted()
+                .toArray(String[]::new);
+    }
+
+    @Override
+    public void restoreContract(@NotNull String name, @NotNull String id) {
+        if ( name == null ) throw new NullPointerException("name");
+        if ( id == null ) throw new NullPointerException("id");
+        ContractSite site = ContractsContext.getContext(name).findSite(id);
+        if ( site == null ) {
+            throw new IllegalArgumentException("No contract " + id + " in " + name);
+        }
+        site.restore();
+        downgradedSites.remove(site);
+        log.info("Restored contract %s in %s", id, name);
+    }
+
+    @Override
+    public long getScannedClassCount() {
+        Transformer transformer = this.transformer;
+        return transformer == null ? 0 : transformer.getScannedCount();
+    }
+
+    @Override
+    public long getSkippedClassCount() {
+        Transformer transformer = this.transformer;
+        return transformer == null ? 0 : transformer.getSkippedCount();
+    }
+
+    @Override
+    public long getInstrumentedClassCount() {
+        Transformer transformer = this.transformer;
+        return transformer == null ? 0 : transformer.getInstrumentedCount();
+    }
+
+    @Override
+    public long getCacheHitCount() {
+        BytecodeCache cache = getCache();
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        BytecodeCache cache = getCache();
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    private BytecodeCache getCache() {
+        Transformer transformer = this.transformer;
+        return transformer == null ? null : transformer.getCache();
+    }
+
+    public void reportDowngrade(@NotNull ContractsContext context, @NotNull ContractSite site) {
         if ( context == null ) throw new NullPointerException("context");
-        if ( violation == null ) throw new NullPointerException("violation");
-        // FIXME: not implemented
+        if ( site == null ) throw new NullPointerException("site");
+        if ( site.getState() == ContractSite.State.ACTIVE ) {
+            downgradedSites.remove(site);
+        }
+        else {
+            downgradedSites.add(site);
+        }
     }
 
-    @NotNull
-    ClassPool getClassPool(@NotNull ClassLoader loader) {
-        return null;
+    /**
+     * Report a violation. The violation is handed over to a background thread, this
+     * method never blocks.
+     */
+    public void reportViolation(@NotNull ContractsContext context, @NotNull ContractViolationError violation) {
+        if ( context == null ) throw new NullPointerException("context");
+        if ( violation == null ) throw new NullPointerException("violation");
+        ViolationReporter reporter = violationReporter;
+        if ( reporter != null ) {
+            reporter.report(context, violation);
+        }
     }
 
 }
@@ -15,6 +15,10 @@
  */
 package ch.raffael.contracts.agent;
 
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
+
 /**
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
@@ -25,6 +29,34 @@ public interface ContractsManagerMBean {
     public void enable(String name);
     public void disable(String name);
 
-    public void isEnabled(String name);
+    public boolean isEnabled(String name);
+
+    public void setSamplingRate(String name, int rate);
+    public int getSamplingRate(String name);
+
+    public void setTimeBudget(String name, long nanos);
+    public long getTimeBudget(String name);
+
+    public void setReportOnly(String name, boolean reportOnly);
+    public boolean isReportOnly(String name);
+
+    public void setCaptureStackTraces(String name, boolean captureStackTraces);
+    public boolean isCaptureStackTraces(String name);
+    public void setReuseViolations(String name, String id, boolean reuse);
+
+    public long getViolationCount(String name);
+    public long getDroppedViolationCount();
+    public CompositeData[] getViolationStatistics() throws OpenDataException;
+
+    public String[] getContractStatistics(String name);
+    public String[] getDowngradedContracts();
+    public void restoreContract(String name, String id);
+
+    public long getScannedClassCount();
+    public long getSkippedClassCount();
+    public long getInstrumentedClassCount();
+
+    public long getCacheHitCount();
+    public long getCacheMissCount();
 
 }
@@ -15,72 +15,230 @@
  */
 package ch.raffael.contracts.agent;
 
-import java.io.ByteArrayInputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
+import java.nio.ByteBuffer;
 import java.security.ProtectionDomain;
+import java.util.concurrent.atomic.LongAdder;
 
-import javassist.ClassPool;
-import javassist.CtClass;
-import javassist.CtField;
-import javassist.CtMethod;
-import javassist.Modifier;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
 
-import ch.raffael.contracts.Contract;
 import ch.raffael.contracts.NotNull;
 import ch.raffael.contracts.Nullable;
 import ch.raffael.contracts.internal.Log;
 
+import static org.objectweb.asm.Opcodes.*;
+
 
 /**
+ * The class file transformer of the agent. Classes are processed as a stream using ASM,
+ * no object model is ever built for a class, nothing is kept in memory after
+ * `transform()` returns.
+ *
+ * Currently, the only class rewritten is `ContractsContext`, which gets violation and
+ * downgrade reporting added. Instrumenting classes under contract depends on the code
+ * generated by the processor, which doesn't exist yet, so such classes are only
+ * detected and logged at debug level.
+ *
+ * Before parsing anything, classes are checked in two cheap stages: First, the class
+ * name is checked against the {@link ClassFilter}, second, the raw class file is scanned
+ * for references to contracts (see {@link ClassFileScanner}). Only classes passing both
+ * stages are parsed, and only if debug logging is enabled.
+ *
+ * If a {@link BytecodeCache} is configured, it's consulted before a class is rewritten,
+ * and the results of the instrumentation are added to it. Classes that aren't rewritten
+ * never touch the cache.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 class Transformer implements ClassFileTransformer {
 
+    static final String CONTRACTS_CONTEXT = "ch/raffael/contracts/internal/ContractsContext";
+    static final String CONTRACT_SITE = "ch/raffael/contracts/internal/ContractSite";
+    static final String CONTRACT_VIOLATION_ERROR = "ch/raffael/contracts/ContractViolationError";
+    static final String UNDER_CONTRACT_DESC = "Lch/raffael/contracts/internal/UnderContract;";
+    static final String CONTRACTS_MANAGER = "ch/raffael/contracts/agent/ContractsManager";
+
     private final Log log = Log.getInstance();
-    private volatile ContractsManager contractsManager = null;
+    private final ClassFilter filter;
+    @Nullable
+    private final BytecodeCache cache;
+
+    private final LongAdder scannedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder instrumentedCount = new LongAdder();
 
-    Transformer() {
+    Transformer(@NotNull ClassFilter filter, @Nullable BytecodeCache cache) {
+        this.filter = filter;
+        this.cache = cache;
     }
 
     @Override
     @Nullable
-    public byte[] transform(@NotNull ClassLoader loader,
-                            @NotNull String className,
-                            @Contract("classBeingRedefined==null") Class<?> classBeingRedefined,
+    public byte[] transform(@Nullable ClassLoader loader,
+                            @Nullable String className,
+                            @Nullable Class<?> classBeingRedefined,
                             @Nullable ProtectionDomain protectionDomain,
                             @NotNull byte[] classfileBuffer)
             throws IllegalClassFormatException {
-        if ( contractsManager == null ) {
-            // synchronization: we don't care, getInstance() will always return the same
-            contractsManager = ContractsManager.getInstance();
+        if ( className == null ) {
+            // hidden or anonymous classes, e.g. lambdas
+            return null;
         }
         try {
-            ClassPool pool = contractsManager.getClassPool(loader);
-            CtClass ctClass = pool.makeClass(new ByteArrayInputStream(classfileBuffer));
-            boolean modified = false;
-            if ( ctClass.getName().equals("ch.raffael.util.contracts.internal.ContractsContext") ) {
-                modified = true;
-                log.debug("Adding violation reporting to ContractsContext");
-                CtField mgrField = new CtField(pool.get(ContractsManager.class.getName()), "MANAGER", ctClass);
-                mgrField.setModifiers(Modifier.PRIVATE | Modifier.STATIC | Modifier.FINAL);
-                ctClass.addField(mgrField, ContractsManager.class.getName() + ".getInstance()");
-                CtMethod violation = ctClass.getDeclaredMethod("violation", new CtClass[] { pool.get("ch.raffael.util.contracts.ContractViolation") });
-                violation.insertBefore("MANAGER.reportViolation(this, $1);");
+            if ( className.equals(CONTRACTS_CONTEXT) ) {
+                return instrumentContractsContext(classfileBuffer);
             }
-            if ( modified ) {
-                if ( log.isDebugEnabled() ) {
-                    log.debug("Instrumented class %s", ctClass.getName());
-                }
-                return ctClass.toBytecode();
+            if ( !filter.accept(className) ) {
+                skippedCount.increment();
+                return null;
             }
-            else {
+            scannedCount.increment();
+            if ( !ClassFileScanner.mayBeUnderContract(classfileBuffer) ) {
                 return null;
             }
+            if ( log.isDebugEnabled() && isUnderContract(new ClassReader(classfileBuffer)) ) {
+                log.debug("Class %s is under contract", className);
+            }
+            return null;
         }
         catch ( Exception e ) {
             log.error("Error instrumenting class %s", e, className);
             return null;
         }
     }
+
+    @NotNull
+    private byte[] instrumentContractsContext(@NotNull byte[] classfileBuffer) {
+        ByteBuffer key = null;
+        if ( cache != null ) {
+            key = cache.key(classfileBuffer);
+            byte[] cached = cache.get(key);
+            if ( cached != null ) {
+                instrumentedCount.increment();
+                log.debug("Using cached instrumented ContractsContext");
+                return cached;
+            }
+        }
+        log.debug("Adding violation and downgrade reporting to ContractsContext");
+        ClassReader reader = new ClassReader(classfileBuffer);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        reader.accept(new ContractsContextInstrumenter(writer), 0);
+        byte[] result = writer.toByteArray();
+        instrumentedCount.increment();
+        if ( cache != null ) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    @Nullable
+    BytecodeCache getCache() {
+        return cache;
+    }
+
+    /**
+     * The number of classes that passed the class filter and have been scanned.
+     */
+    long getScannedCount() {
+        return scannedCount.sum();
+    }
+
+    /**
+     * The number of classes rejected by the class filter.
+     */
+    long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    /**
+     * The number of classes actually instrumented.
+     */
+    long getInstrumentedCount() {
+        return instrumentedCount.sum();
+    }
+
+    /**
+     * Check for the `@UnderContract` annotation. Fields, methods, code and debug
+     * information are skipped by the reader.
+     */
+    static boolean isUnderContract(@NotNull ClassReader reader) {
+        UnderContractDetector detector = new UnderContractDetector();
+        reader.accept(detector, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return detector.underContract;
+    }
+
+    private static final class UnderContractDetector extends ClassVisitor {
+
+        private boolean underContract = false;
+
+        private UnderContractDetector() {
+            super(ASM5);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            if ( desc.equals(UNDER_CONTRACT_DESC) ) {
+                underContract = true;
+            }
+            return null;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            return null;
+        }
+    }
+
+    /**
+     * Inserts `ContractsManager.getInstance().reportXxx(this, arg)` at the beginning of
+     * `ContractsContext.violation()` and `ContractsContext.downgraded()`.
+     */
+    private static final class ContractsContextInstrumenter extends ClassVisitor {
+
+        private ContractsContextInstrumenter(ClassVisitor cv) {
+            super(ASM5, cv);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+            MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+            if ( name.equals("violation") && desc.equals("(L" + CONTRACT_VIOLATION_ERROR + ";)V") ) {
+                return new ReportingMethodVisitor(mv, "reportViolation", CONTRACT_VIOLATION_ERROR);
+            }
+            else if ( name.equals("downgraded") && desc.equals("(L" + CONTRACT_SITE + ";)V") ) {
+                return new ReportingMethodVisitor(mv, "reportDowngrade", CONTRACT_SITE);
+            }
+            else {
+                return mv;
+            }
+        }
+    }
+
+    private static final class ReportingMethodVisitor extends MethodVisitor {
+
+        private final String reportMethod;
+        private final String argumentType;
+
+        private ReportingMethodVisitor(MethodVisitor mv, String reportMethod, String argumentType) {
+            super(ASM5, mv);
+            this.reportMethod = reportMethod;
+            this.argumentType = argumentType;
+        }
+
+        @Override
+        public void visitCode() {
+            super.visitCode();
+            super.visitMethodInsn(INVOKESTATIC, CONTRACTS_MANAGER, "getInstance", "()L" + CONTRACTS_MANAGER + ";", false);
+            super.visitVarInsn(ALOAD, 0);
+            super.visitVarInsn(ALOAD, 1);
+            super.visitMethodInsn(INVOKEVIRTUAL, CONTRACTS_MANAGER, reportMethod,
+                                  "(L" + CONTRACTS_CONTEXT + ";L" + argumentType + ";)V", false);
+        }
+    }
+
 }
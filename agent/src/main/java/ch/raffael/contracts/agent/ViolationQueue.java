@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.internal.ContractsContext;
+
+
+/**
+ * A bounded, lock-free multi-producer single-consumer ring buffer of violations.
+ *
+ * Producers claim a sequence number by CAS on the tail, then publish the context and
+ * the violation in two parallel arrays, so offering a violation doesn't allocate. The
+ * violation is written last and serves as the "published" marker for the consumer. If
+ * the buffer is full, the violation is dropped and counted, producers never wait.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ViolationQueue {
+
+    private final int mask;
+    private final AtomicReferenceArray<ContractsContext> contexts;
+    private final AtomicReferenceArray<ContractViolationError> violations;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param capacity The capacity, will be rounded up to the next power of 2.
+     */
+    ViolationQueue(int capacity) {
+        if ( capacity < 1 || capacity > 1 << 30 ) {
+            throw new IllegalArgumentException("Illegal capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if ( size < capacity ) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        contexts = new AtomicReferenceArray<>(size);
+        violations = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * Add a violation. May be called by any thread.
+     *
+     * @return `false`, if the queue was full and the violation has been dropped.
+     */
+    boolean offer(@NotNull ContractsContext context, @NotNull ContractViolationError violation) {
+        long seq;
+        do {
+            seq = tail.get();
+            if ( seq - head.get() > mask ) {
+                droppedCount.incrementAndGet();
+                return false;
+            }
+        } while ( !tail.compareAndSet(seq, seq + 1) );
+        int index = (int)seq & mask;
+        contexts.lazySet(index, context);
+        violations.lazySet(index, violation);
+        return true;
+    }
+
+    /**
+     * Remove all published violations and pass them to the given consumer. Must only be
+     * called by the consumer thread.
+     *
+     * @return The number of violations drained.
+     */
+    int drain(@NotNull Consumer consumer) {
+        int count = 0;
+        long seq = head.get();
+        while ( true ) {
+            int index = (int)seq & mask;
+            ContractViolationError violation = violations.get(index);
+            if ( violation == null ) {
+                // empty or not published yet
+                break;
+            }
+            ContractsContext context = contexts.get(index);
+            contexts.lazySet(index, null);
+            violations.lazySet(index, null);
+            seq++;
+            head.lazySet(seq);
+            count++;
+            consumer.accept(context, violation);
+        }
+        return count;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    interface Consumer {
+        void accept(@NotNull ContractsContext context, @NotNull ContractViolationError violation);
+    }
+
+}
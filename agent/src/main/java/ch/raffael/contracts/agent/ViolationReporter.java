@@ -0,0 +1,174 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.internal.ContractsContext;
+import ch.raffael.contracts.internal.Log;
+
+
+/**
+ * Reports violations asynchronously: The threads violating contracts only put the
+ * violation into a {@link ViolationQueue}, a daemon thread drains the queue, aggregates
+ * the violations per contract site (see {@link ViolationStatistics}) and logs them.
+ *
+ * Logging is rate limited by a token bucket allowing a configurable number of log
+ * messages per second. The first violation of a site is logged with its stack trace,
+ * later ones only with the number of violations since the last message. Violations
+ * exceeding the rate are counted as suppressed.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ViolationReporter implements ViolationQueue.Consumer {
+
+    static final int DEFAULT_QUEUE_SIZE = 1024;
+    static final double DEFAULT_MAX_LOG_RATE = 10;
+    static final int DEFAULT_EXEMPLARS = 3;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final Log log = Log.getInstance();
+    private final ViolationQueue queue;
+    private final double maxLogRate;
+    private final int exemplars;
+    private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<ViolationStatistics.Site, ViolationStatistics> sites = new ConcurrentHashMap<>();
+
+    // token bucket, only accessed by the reporter thread
+    private double logTokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param queueSize   The capacity of the queue.
+     * @param maxLogRate  The maximum number of log messages per second.
+     * @param exemplars   The number of first and last violations to keep per site.
+     */
+    ViolationReporter(int queueSize, double maxLogRate, int exemplars) {
+        if ( maxLogRate <= 0 ) {
+            throw new IllegalArgumentException("Illegal maximum log rate: " + maxLogRate);
+        }
+        if ( exemplars < 0 ) {
+            throw new IllegalArgumentException("Illegal number of exemplars: " + exemplars);
+        }
+        queue = new ViolationQueue(queueSize);
+        this.maxLogRate = maxLogRate;
+        this.exemplars = exemplars;
+        logTokens = maxBurst();
+    }
+
+    void start() {
+        Thread thread = new Thread(this::drainLoop, "contracts-violation-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Report a violation. Never blocks, the violation will be dropped if the queue is
+     * full.
+     */
+    void report(@NotNull ContractsContext context, @NotNull ContractViolationError violation) {
+        queue.offer(context, violation);
+    }
+
+    long getViolationCount(@NotNull String contextName) {
+        AtomicLong count = counts.get(contextName);
+        return count == null ? 0 : count.get();
+    }
+
+    long getDroppedCount() {
+        return queue.getDroppedCount();
+    }
+
+    @NotNull
+    CompositeData[] getStatistics() throws OpenDataException {
+        List<CompositeData> statistics = new ArrayList<>(sites.size());
+        for ( ViolationStatistics site : sites.values() ) {
+            statistics.add(site.toCompositeData());
+        }
+        return statistics.toArray(new CompositeData[statistics.size()]);
+    }
+
+    @Override
+    public void accept(@NotNull ContractsContext context, @NotNull ContractViolationError violation) {
+        AtomicLong count = counts.get(context.getName());
+        if ( count == null ) {
+            count = counts.computeIfAbsent(context.getName(), n -> new AtomicLong());
+        }
+        count.incrementAndGet();
+        ViolationStatistics.Site site = ViolationStatistics.Site.of(context.getName(), violation);
+        ViolationStatistics statistics = sites.get(site);
+        if ( statistics == null ) {
+            statistics = sites.computeIfAbsent(site, s -> new ViolationStatistics(s, exemplars));
+        }
+        boolean first = statistics.add(violation, System.currentTimeMillis());
+        if ( !tryAcquireLogToken() ) {
+            statistics.suppressed();
+            return;
+        }
+        long skipped = statistics.logged();
+        String mode = context.isReportOnly() ? " (report only)" : "";
+        if ( first ) {
+            log.error("Contract violation at %s%s", violation, site, mode);
+        }
+        else {
+            log.error("Contract violation at %s%s: %s (%d violations since last message, %d total)",
+                      site, mode, violation, skipped, statistics.getCount());
+        }
+    }
+
+    private boolean tryAcquireLogToken() {
+        long now = System.nanoTime();
+        logTokens = Math.min(maxBurst(), logTokens + (now - lastRefill) * maxLogRate / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+        if ( logTokens >= 1 ) {
+            logTokens -= 1;
+            return true;
+        }
+        else {
+            return false;
+        }
+    }
+
+    private double maxBurst() {
+        return Math.max(1, maxLogRate);
+    }
+
+    private void drainLoop() {
+        while ( true ) {
+            try {
+                if ( queue.drain(this) == 0 ) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+            }
+            catch ( Throwable e ) {
+                log.error("Error reporting violations", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+
+import javax.management.openmbean.ArrayType;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.CompositeDataSupport;
+import javax.management.openmbean.CompositeType;
+import javax.management.openmbean.OpenDataException;
+import javax.management.openmbean.OpenType;
+import javax.management.openmbean.SimpleType;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.internal.SourceLocation;
+
+
+/**
+ * Aggregated violations of a single contract site. Only the reporter thread updates the
+ * statistics, but they may be read by any thread.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class ViolationStatistics {
+
+    static final CompositeType COMPOSITE_TYPE;
+    private static final String[] ITEM_NAMES = {
+            "context", "className", "methodName", "fileName", "lineNumber",
+            "count", "suppressedCount", "firstTimestamp", "lastTimestamp",
+            "firstExemplars", "lastExemplars" };
+    static {
+        try {
+            ArrayType<String[]> stringArray = ArrayType.getArrayType(SimpleType.STRING);
+            COMPOSITE_TYPE = new CompositeType(
+                    ViolationStatistics.class.getName(), "Contract violations by site",
+                    ITEM_NAMES, ITEM_NAMES,
+                    new OpenType<?>[] {
+                            SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.STRING, SimpleType.INTEGER,
+                            SimpleType.LONG, SimpleType.LONG, SimpleType.LONG, SimpleType.LONG,
+                            stringArray, stringArray });
+        }
+        catch ( OpenDataException e ) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Site site;
+    private final int maxExemplars;
+
+    // only written by the reporter thread
+    private volatile long count = 0;
+    private volatile long suppressedCount = 0;
+    private volatile long firstTimestamp = 0;
+    private volatile long lastTimestamp = 0;
+    private final List<String> firstExemplars = new ArrayList<>();
+    private final Deque<String> lastExemplars = new ArrayDeque<>();
+
+    /**
+     * Violations since the last time a violation of this site has been logged.
+     */
+    private long unloggedCount = 0;
+
+    ViolationStatistics(@NotNull Site site, int maxExemplars) {
+        this.site = site;
+        this.maxExemplars = maxExemplars;
+    }
+
+    @NotNull
+    Site getSite() {
+        return site;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getSuppressedCount() {
+        return suppressedCount;
+    }
+
+    /**
+     * Add a violation.
+     *
+     * @return `true`, if this is the first violation of this site.
+     */
+    boolean add(@NotNull ContractViolationError violation, long timestamp) {
+        String exemplar = String.valueOf(violation);
+        synchronized ( this ) {
+            if ( firstExemplars.size() < maxExemplars ) {
+                firstExemplars.add(exemplar);
+            }
+            if ( maxExemplars > 0 ) {
+                if ( lastExemplars.size() >= maxExemplars ) {
+                    lastExemplars.removeFirst();
+                }
+                lastExemplars.addLast(exemplar);
+            }
+        }
+        if ( count == 0 ) {
+            firstTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+        count++;
+        unloggedCount++;
+        return count == 1;
+    }
+
+    /**
+     * The violation has been logged.
+     *
+     * @return The number of violations of this site since the last one that has been
+     * logged, excluding the one just logged.
+     */
+    long logged() {
+        long skipped = unloggedCount - 1;
+        unloggedCount = 0;
+        return skipped;
+    }
+
+    void suppressed() {
+        suppressedCount++;
+    }
+
+    @NotNull
+    CompositeData toCompositeData() throws OpenDataException {
+        String[] first;
+        String[] last;
+        synchronized ( this ) {
+            first = firstExemplars.toArray(new String[firstExemplars.size()]);
+            last = lastExemplars.toArray(new String[lastExemplars.size()]);
+        }
+        return new CompositeDataSupport(COMPOSITE_TYPE, ITEM_NAMES, new Object[] {
+                site.context, site.className, site.methodName, site.fileName, site.lineNumber,
+                count, suppressedCount, firstTimestamp, lastTimestamp,
+                first, last });
+    }
+
+    /**
+     * Identifies a contract site by its context and source location.
+     */
+    static final class Site {
+
+        private final String context;
+        private final String className;
+        private final String methodName;
+        private final String fileName;
+        private final int lineNumber;
+
+        Site(@NotNull String context, @NotNull String className, @NotNull String methodName, @Nullable String fileName, int lineNumber) {
+            this.context = context;
+            this.className = className;
+            this.methodName = methodName;
+            this.fileName = fileName;
+            this.lineNumber = lineNumber;
+        }
+
+        /**
+         * Get the site of a violation. Uses the {@link SourceLocation} of the violation if
+         * available, the top of the stack trace otherwise.
+         */
+        @NotNull
+        static Site of(@NotNull String context, @NotNull ContractViolationError violation) {
+            SourceLocation location = violation.getSourceLocation();
+            if ( location != null ) {
+                return new Site(context, location.className(), location.methodName(), location.fileName(), location.lineNumber());
+            }
+            StackTraceElement[] stackTrace = violation.getStackTrace();
+            if ( stackTrace.length > 0 ) {
+                StackTraceElement top = stackTrace[0];
+                return new Site(context, top.getClassName(), top.getMethodName(), top.getFileName(), top.getLineNumber());
+            }
+            return new Site(context, "?", "?", null, -1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( o == null || getClass() != o.getClass() ) {
+                return false;
+            }
+            Site that = (Site)o;
+            return lineNumber == that.lineNumber
+                    && context.equals(that.context)
+                    && className.equals(that.className)
+                    && methodName.equals(that.methodName)
+                    && Objects.equals(fileName, that.fileName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, className, methodName, fileName, lineNumber);
+        }
+
+        @Override
+        public String toString() {
+            return context + ": " + className + "." + methodName + "(" + (fileName == null ? "Unknown Source" : fileName + ":" + lineNumber) + ")";
+        }
+    }
+
+}
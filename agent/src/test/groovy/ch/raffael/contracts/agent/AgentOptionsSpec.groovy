@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class AgentOptionsSpec extends Specification {
+
+    def "Options are separated by semicolons"() {
+      when:
+        def options = AgentOptions.parse(' include = com.example ;; cache=/tmp/cache;flag ')
+
+      then:
+        options.get(AgentOptions.INCLUDE) == 'com.example'
+        options.get(AgentOptions.CACHE) == '/tmp/cache'
+        options.get('flag') == 'true'
+        options.get(AgentOptions.EXCLUDE) == null
+    }
+
+    def "Missing arguments result in empty options"() {
+      when:
+        def options = AgentOptions.parse(null)
+
+      then:
+        options.getList(AgentOptions.INCLUDE) == []
+        options.getInt(AgentOptions.VIOLATION_QUEUE_SIZE, 42) == 42
+        options.getDouble(AgentOptions.MAX_VIOLATION_LOG_RATE, 1.5) == 1.5
+    }
+
+    def "Lists are separated by commas, empty elements are ignored"() {
+      expect:
+        AgentOptions.parse('include= a.b , ,c.d,').getList(AgentOptions.INCLUDE) == ['a.b', 'c.d']
+    }
+
+    def "Illegal numbers are rejected"() {
+      when:
+        AgentOptions.parse('violationQueueSize=many').getInt(AgentOptions.VIOLATION_QUEUE_SIZE, 42)
+
+      then:
+        def e = thrown(IllegalArgumentException)
+        e.message.contains(AgentOptions.VIOLATION_QUEUE_SIZE)
+    }
+
+    def "Arguments override the configuration file"() {
+      given:
+        def config = Files.createTempFile('AgentOptionsSpec', '.properties')
+        config.text = 'include=com.example\nexclude=com.example.internal\n'
+
+      when:
+        def options = AgentOptions.parse("config=$config;include=org.example")
+
+      then:
+        options.get(AgentOptions.INCLUDE) == 'org.example'
+        options.get(AgentOptions.EXCLUDE) == 'com.example.internal'
+
+      cleanup:
+        Files.deleteIfExists(config)
+    }
+
+}
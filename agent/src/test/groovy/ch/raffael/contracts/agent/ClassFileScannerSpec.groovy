@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ClassFileScannerSpec extends Specification {
+
+    def "References to contracts are found anywhere in the class file"() {
+      expect:
+        ClassFileScanner.mayBeUnderContract(ascii(content))
+
+      where:
+        content << [
+                Transformer.UNDER_CONTRACT_DESC,
+                'xyz' + Transformer.UNDER_CONTRACT_DESC,
+                Transformer.UNDER_CONTRACT_DESC + 'xyz',
+                'raffael raffae' + Transformer.UNDER_CONTRACT_DESC,
+                'com/example/Foo$$ch$raffael$contracts',
+                '$$ch$raffael$contracts.class' ]
+    }
+
+    def "Classes without references to contracts are rejected"() {
+      expect:
+        !ClassFileScanner.mayBeUnderContract(ascii(content))
+
+      where:
+        content << [
+                '',
+                'raffae',
+                'raffael',
+                'ch/raffael/contracts/Foo',
+                'Lch/raffael/contracts/internal/UnderContrac',
+                '$ch$raffael$contracts',
+                'xyz' * 100 ]
+    }
+
+    def "Real class files without contracts are rejected"() {
+      given:
+        def classFile = ClassFilter.getResourceAsStream('ClassFilter.class').bytes
+
+      expect: "the class file references the package, which contains the anchor"
+        new String(classFile, 'ISO-8859-1').contains('raffael')
+        !ClassFileScanner.mayBeUnderContract(classFile)
+    }
+
+    private static byte[] ascii(String string) {
+        string.getBytes('US-ASCII')
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ClassFilterSpec extends Specification {
+
+    def "The JDK and the contracts runtime are always excluded"() {
+      given:
+        def filter = new ClassFilter(['java', 'ch.raffael'], [])
+
+      expect:
+        !filter.accept(className)
+
+      where:
+        className << [
+                'java/lang/String',
+                'javax/swing/JFrame',
+                'sun/misc/Unsafe',
+                'com/sun/Foo',
+                'org/objectweb/asm/ClassReader',
+                'ch/raffael/contracts/agent/Transformer',
+                'ch/raffael/contracts/internal/ContractsContext' ]
+    }
+
+    def "Without includes, all classes that aren't excluded are accepted"() {
+      given:
+        def filter = new ClassFilter([], ['com.example.excluded'])
+
+      expect:
+        filter.accept('com/example/Foo')
+        filter.accept('Foo')
+        !filter.accept('com/example/excluded/Foo')
+        !filter.accept('com/example/excluded/sub/Foo')
+    }
+
+    def "Includes and excludes match whole packages"() {
+      given:
+        def filter = new ClassFilter(['com.example.*'], ['com.example.excluded'])
+
+      expect:
+        filter.accept('com/example/Foo')
+        filter.accept('com/example/sub/Foo')
+        filter.accept('com/example/excludedToo/Foo')
+        !filter.accept('com/examples/Foo')
+        !filter.accept('com/example/excluded/Foo')
+        !filter.accept('javax/Foo')
+    }
+
+    def "Filter is configured from the agent options"() {
+      given:
+        def filter = ClassFilter.fromOptions(AgentOptions.parse('include=com.example, org.example;exclude=com.example.internal'))
+
+      expect:
+        filter.accept('com/example/Foo')
+        filter.accept('org/example/Foo')
+        !filter.accept('net/example/Foo')
+        !filter.accept('com/example/internal/Foo')
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import ch.raffael.contracts.ContractViolationError
+import ch.raffael.contracts.internal.ContractsContext
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ViolationQueueSpec extends Specification {
+
+    final ContractsContext context = ContractsContext.getContext(ViolationQueueSpec)
+
+    def "Capacity is rounded up to the next power of 2"() {
+      expect:
+        new ViolationQueue(capacity).capacity() == rounded
+
+      where:
+        capacity | rounded
+        1        | 1
+        2        | 2
+        5        | 8
+        1024     | 1024
+        1025     | 2048
+    }
+
+    def "Illegal capacities are rejected"() {
+      when:
+        new ViolationQueue(capacity)
+
+      then:
+        thrown(IllegalArgumentException)
+
+      where:
+        capacity << [0, -1, (1 << 30) + 1]
+    }
+
+    def "Violations are drained in order across the end of the buffer"() {
+      given:
+        def queue = new ViolationQueue(4)
+        def drained = []
+        def consumer = { ContractsContext c, ContractViolationError v -> drained << v.message } as ViolationQueue.Consumer
+
+      when:
+        (1..3).each { queue.offer(context, violation(it)) }
+        queue.drain(consumer)
+        (4..7).each { queue.offer(context, violation(it)) }
+
+      then:
+        queue.drain(consumer) == 4
+        drained == (1..7)*.toString()
+        queue.drain(consumer) == 0
+        queue.droppedCount == 0
+    }
+
+    def "Violations are dropped and counted when the queue is full"() {
+      given:
+        def queue = new ViolationQueue(2)
+        def drained = []
+        def consumer = { ContractsContext c, ContractViolationError v -> drained << v.message } as ViolationQueue.Consumer
+
+      expect:
+        queue.offer(context, violation(1))
+        queue.offer(context, violation(2))
+        !queue.offer(context, violation(3))
+        !queue.offer(context, violation(4))
+        queue.droppedCount == 2
+
+      and: "draining makes room again"
+        queue.drain(consumer) == 2
+        queue.offer(context, violation(5))
+        queue.drain(consumer) == 1
+        drained == ['1', '2', '5']
+        queue.droppedCount == 2
+    }
+
+    def "Concurrent producers neither lose nor duplicate violations"() {
+      given:
+        def queue = new ViolationQueue(256)
+        def executor = Executors.newFixedThreadPool(4)
+        def drained = []
+        def consumer = { ContractsContext c, ContractViolationError v -> drained << v.message } as ViolationQueue.Consumer
+
+      when:
+        def futures = (0..<4).collect { producer ->
+            executor.submit({ (0..<1000).each { queue.offer(context, violation("$producer:$it")) } } as Callable)
+        }
+        while ( !futures.every { it.done } ) {
+            queue.drain(consumer)
+        }
+        futures*.get()
+        queue.drain(consumer)
+
+      then:
+        drained.size() + queue.droppedCount == 4000
+        drained.toSet().size() == drained.size()
+
+      cleanup:
+        executor.shutdown()
+    }
+
+    private static ContractViolationError violation(Object message) {
+        new ContractViolationError(message as String, null, false)
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import ch.raffael.contracts.ContractViolationError
+import ch.raffael.contracts.internal.ContractsContext
+import spock.lang.Specification
+
+import javax.management.openmbean.CompositeData
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ViolationReporterSpec extends Specification {
+
+    final ContractsContext context = ContractsContext.getContext(ViolationReporterSpec)
+
+    def "Violations exceeding the burst of the token bucket are suppressed"() {
+      given:
+        def reporter = new ViolationReporter(16, 5, 3)
+
+      when:
+        10.times { reporter.accept(context, violation()) }
+
+      then:
+        reporter.getViolationCount(context.name) == 10
+        statistics(reporter).get('count') == 10
+        statistics(reporter).get('suppressedCount') == 5
+    }
+
+    def "The burst is at least one message"() {
+      given:
+        def reporter = new ViolationReporter(16, 0.5, 3)
+
+      when:
+        3.times { reporter.accept(context, violation()) }
+
+      then:
+        statistics(reporter).get('suppressedCount') == 2
+    }
+
+    def "Tokens are refilled at the maximum log rate"() {
+      given:
+        def reporter = new ViolationReporter(16, 5, 3)
+        6.times { reporter.accept(context, violation()) }
+
+      when: "waiting for 2.5 tokens"
+        Thread.sleep(500)
+        2.times { reporter.accept(context, violation()) }
+
+      then:
+        statistics(reporter).get('count') == 8
+        statistics(reporter).get('suppressedCount') == 1
+    }
+
+    def "Violations are dropped when the queue is full"() {
+      given:
+        def reporter = new ViolationReporter(2, 5, 3)
+
+      when: "the reporter thread isn't running"
+        3.times { reporter.report(context, violation()) }
+
+      then:
+        reporter.droppedCount == 1
+        reporter.getViolationCount(context.name) == 0
+    }
+
+    def "Illegal options are rejected"() {
+      when:
+        new ViolationReporter(16, maxLogRate, exemplars)
+
+      then:
+        thrown(IllegalArgumentException)
+
+      where:
+        maxLogRate | exemplars
+        0          | 3
+        -1         | 3
+        5          | -1
+    }
+
+    private static ContractViolationError violation() {
+        new ContractViolationError('test', null, false)
+    }
+
+    private static CompositeData statistics(ViolationReporter reporter) {
+        def statistics = reporter.statistics
+        assert statistics.length == 1
+        statistics[0]
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.agent
+
+import ch.raffael.contracts.ContractViolationError
+import ch.raffael.contracts.internal.SourceLocation
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ViolationStatisticsSpec extends Specification {
+
+    final ViolationStatistics.Site site = new ViolationStatistics.Site('ctx', 'com.example.Foo', 'bar', 'Foo.java', 42)
+
+    def "Violations are counted and the first and last exemplars are kept"() {
+      given:
+        def statistics = new ViolationStatistics(site, 2)
+
+      when:
+        def first = (1..5).collect { statistics.add(violation(it), it * 10) }
+        def data = statistics.toCompositeData()
+
+      then:
+        first == [true, false, false, false, false]
+        data.get('count') == 5
+        data.get('firstTimestamp') == 10
+        data.get('lastTimestamp') == 50
+        data.get('firstExemplars') == [violation(1), violation(2)]*.toString() as String[]
+        data.get('lastExemplars') == [violation(4), violation(5)]*.toString() as String[]
+        data.get('context') == 'ctx'
+        data.get('lineNumber') == 42
+    }
+
+    def "No exemplars are kept if none are requested"() {
+      given:
+        def statistics = new ViolationStatistics(site, 0)
+
+      when:
+        3.times { statistics.add(violation(it), it) }
+
+      then:
+        statistics.toCompositeData().get('firstExemplars').length == 0
+        statistics.toCompositeData().get('lastExemplars').length == 0
+    }
+
+    def "Logging returns the number of violations since the last logged one"() {
+      given:
+        def statistics = new ViolationStatistics(site, 0)
+
+      when:
+        statistics.add(violation(1), 1)
+
+      then:
+        statistics.logged() == 0
+
+      when:
+        3.times { statistics.add(violation(it), it) }
+        statistics.suppressed()
+        statistics.suppressed()
+
+      then:
+        statistics.logged() == 2
+        statistics.suppressedCount == 2
+        statistics.count == 4
+    }
+
+    def "The site is taken from the source location"() {
+      given:
+        def location = Stub(SourceLocation) {
+            className() >> 'com.example.Foo'
+            methodName() >> 'bar'
+            fileName() >> 'Foo.java'
+            lineNumber() >> 42
+        }
+
+      expect:
+        ViolationStatistics.Site.of('ctx', new ContractViolationError('test', location, false)) == site
+    }
+
+    def "Without source location, the site is taken from the stack trace"() {
+      given:
+        def violation = violation(1)
+        violation.stackTrace = [new StackTraceElement('com.example.Foo', 'bar', 'Foo.java', 42),
+                                new StackTraceElement('com.example.Bar', 'foo', 'Bar.java', 23)] as StackTraceElement[]
+
+      expect:
+        ViolationStatistics.Site.of('ctx', violation) == site
+        ViolationStatistics.Site.of('other', violation) != site
+    }
+
+    def "Unknown sites are all the same"() {
+      expect:
+        ViolationStatistics.Site.of('ctx', violation(1)) == ViolationStatistics.Site.of('ctx', violation(2))
+        ViolationStatistics.Site.of('ctx', violation(1)).toString() == 'ctx: ?.?(Unknown Source)'
+    }
+
+    private static ContractViolationError violation(Object message) {
+        new ContractViolationError(message as String, null, false)
+    }
+
+}
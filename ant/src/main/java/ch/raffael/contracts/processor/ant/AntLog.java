@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.ant;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.processor.Log;
+
+
+/**
+ * Adapts the log of an Ant task to the processor's {@link Log}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class AntLog implements Log {
+
+    private final Task task;
+    private final String resource;
+
+    AntLog(@NotNull Task task) {
+        this(task, null);
+    }
+
+    private AntLog(@NotNull Task task, @Nullable String resource) {
+        this.task = task;
+        this.resource = resource;
+    }
+
+    @Override
+    public void error(int line, String message, String... args) {
+        task.log(format(line, message, args), Project.MSG_ERR);
+    }
+
+    @Override
+    public void warn(int line, String message, String... args) {
+        task.log(format(line, message, args), Project.MSG_WARN);
+    }
+
+    @Override
+    public void info(int line, String message, String... args) {
+        task.log(format(line, message, args), Project.MSG_INFO);
+    }
+
+    @Override
+    public void debug(int line, String message, String... args) {
+        task.log(format(line, message, args), Project.MSG_DEBUG);
+    }
+
+    @Override
+    public void error(String message, String... args) {
+        error(-1, message, args);
+    }
+
+    @Override
+    public void warn(String message, String... args) {
+        warn(-1, message, args);
+    }
+
+    @Override
+    public void info(String message, String... args) {
+        info(-1, message, args);
+    }
+
+    @Override
+    public void debug(String message, String... args) {
+        debug(-1, message, args);
+    }
+
+    @Override
+    public Log forResource(String resource) {
+        return new AntLog(task, resource);
+    }
+
+    private String format(int line, String message, String... args) {
+        StringBuilder buf = new StringBuilder();
+        if ( resource != null ) {
+            buf.append(resource);
+            if ( line > 0 ) {
+                buf.append(':').append(line);
+            }
+            buf.append(": ");
+        }
+        if ( args.length == 0 ) {
+            buf.append(message);
+        }
+        else {
+            buf.append(String.format(message, (Object[])args));
+        }
+        return buf.toString();
+    }
+
+}
@@ -15,9 +15,212 @@
  */
 package ch.raffael.contracts.processor.ant;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.types.FileSet;
+import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.Reference;
+
+import ch.raffael.contracts.processor.ContractsProcessor;
+import ch.raffael.contracts.processor.ProcessorDriver;
+import ch.raffael.contracts.processor.cel.ClauseCache;
+import ch.raffael.contracts.processor.cel.skeletons.ClassPathClassFileLoader;
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonCache;
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonPool;
+import ch.raffael.contracts.processor.util.Digester;
+
+
 /**
+ * Ant task running the contracts processor on filesets of class files:
+ *
+ * ```xml
+ * <contracts indexdir="${build.dir}/contracts" classpathref="compile.classpath">
+ *     <fileset dir="${classes.dir}"/>
+ * </contracts>
+ * ```
+ *
+ * The class files of each fileset directory are processed as one batch, in parallel
+ * using the given number of threads (default: the number of available processors). A
+ * batch has to include all classes of its directory the processor should know about, as
+ * inherited contracts are only tracked within a batch. All batches share one
+ * {@link SkeletonPool} loading from the classpath and the fileset directories.
+ *
+ * If an index directory is given, processing is incremental, keeping one build index per
+ * fileset directory (see {@link ch.raffael.contracts.processor.BuildIndex}). The
+ * `uptodatecheck` attribute selects how unchanged class files are detected: `timestamp`
+ * (default) considers class files with unchanged modification time and size as unchanged,
+ * `content` always compares the content hashes.
+ *
+ * If a skeleton cache directory is given, the generated skeletons are cached there
+ * persistently (see {@link SkeletonCache}). The directory may be shared by any number
+ * of builds.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
-public class ContractsProcessorTask {
+public class ContractsProcessorTask extends Task {
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private final List<FileSet> filesets = new ArrayList<>();
+    private Path classpath = null;
+    private File indexDir = null;
+    private File skeletonCache = null;
+    private int threads = 0;
+    private ProcessorDriver.UpToDateCheck upToDateCheck = ProcessorDriver.UpToDateCheck.TIMESTAMP;
+    private boolean failOnError = true;
+
+    public void addFileset(FileSet fileset) {
+        filesets.add(fileset);
+    }
+
+    public Path createClasspath() {
+        if ( classpath == null ) {
+            classpath = new Path(getProject());
+        }
+        return classpath.createPath();
+    }
+
+    public void setClasspath(Path classpath) {
+        createClasspath().append(classpath);
+    }
+
+    public void setClasspathRef(Reference reference) {
+        createClasspath().setRefid(reference);
+    }
+
+    public void setIndexDir(File indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    public void setSkeletonCache(File skeletonCache) {
+        this.skeletonCache = skeletonCache;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public void setUpToDateCheck(String upToDateCheck) {
+        try {
+            this.upToDateCheck = ProcessorDriver.UpToDateCheck.valueOf(upToDateCheck.toUpperCase(Locale.ROOT));
+        }
+        catch ( IllegalArgumentException e ) {
+            throw new BuildException("Invalid up-to-date check: " + upToDateCheck + " (expected 'timestamp' or 'content')", getLocation());
+        }
+    }
+
+    public void setFailOnError(boolean failOnError) {
+        this.failOnError = failOnError;
+    }
+
+    @Override
+    public void execute() throws BuildException {
+        if ( filesets.isEmpty() ) {
+            throw new BuildException("No filesets specified", getLocation());
+        }
+        Map<File, List<java.nio.file.Path>> batches = batches();
+        try {
+            SkeletonPool skeletons = new SkeletonPool(
+                    new ClassPathClassFileLoader(classpath(batches.keySet())),
+                    skeletonCache == null ? null : new SkeletonCache(skeletonCache.toPath()));
+            ClauseCache clauses = new ClauseCache();
+            boolean success = true;
+            for ( Map.Entry<File, List<java.nio.file.Path>> batch : batches.entrySet() ) {
+                ProcessorDriver driver = new ProcessorDriver(batch.getKey().toPath(), skeletons, clauses);
+                if ( threads > 0 ) {
+                    driver.setParallelism(threads);
+                }
+                driver.setUpToDateCheck(upToDateCheck);
+                driver.setLog(new AntLog(this));
+                if ( indexDir != null ) {
+                    driver.setIndexFile(indexFile(batch.getKey()));
+                }
+                long start = System.nanoTime();
+                List<ProcessorDriver.Result> results = driver.run(batch.getValue());
+                int processed = 0;
+                for ( ProcessorDriver.Result result : results ) {
+                    if ( result.getStatus() != ProcessorDriver.Result.Status.UP_TO_DATE ) {
+                        processed++;
+                    }
+                }
+                log(String.format("%s: Processed %d of %d classes in %dms", batch.getKey(), processed, results.size(),
+                                  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                log("Time per phase (all threads): " + driver.getTimings(), Project.MSG_VERBOSE);
+                success &= ProcessorDriver.report(results, new AntLog(this));
+            }
+            if ( !success && failOnError ) {
+                throw new BuildException("Contracts processing failed, see errors above", getLocation());
+            }
+        }
+        catch ( IOException e ) {
+            throw new BuildException("I/O error processing contracts: " + e, e, getLocation());
+        }
+    }
+
+    /**
+     * Collect the class files to be processed, grouped by fileset directory.
+     */
+    private Map<File, List<java.nio.file.Path>> batches() {
+        Map<File, Set<java.nio.file.Path>> classFilesByDir = new LinkedHashMap<>();
+        for ( FileSet fileset : filesets ) {
+            DirectoryScanner scanner = fileset.getDirectoryScanner(getProject());
+            File dir = scanner.getBasedir().getAbsoluteFile();
+            Set<java.nio.file.Path> classFiles = classFilesByDir.get(dir);
+            if ( classFiles == null ) {
+                // filesets of the same directory may overlap
+                classFiles = new LinkedHashSet<>();
+                classFilesByDir.put(dir, classFiles);
+            }
+            for ( String file : scanner.getIncludedFiles() ) {
+                if ( file.endsWith(CLASS_EXTENSION) && !file.endsWith(ContractsProcessor.CONTRACTS_CLASS_SUFFIX + CLASS_EXTENSION) ) {
+                    classFiles.add(dir.toPath().resolve(file));
+                }
+            }
+        }
+        Map<File, List<java.nio.file.Path>> batches = new LinkedHashMap<>();
+        for ( Map.Entry<File, Set<java.nio.file.Path>> entry : classFilesByDir.entrySet() ) {
+            List<java.nio.file.Path> classFiles = new ArrayList<>(entry.getValue());
+            Collections.sort(classFiles);
+            batches.put(entry.getKey(), classFiles);
+        }
+        return batches;
+    }
+
+    private List<java.nio.file.Path> classpath(Iterable<File> directories) {
+        List<java.nio.file.Path> elements = new ArrayList<>();
+        for ( File dir : directories ) {
+            elements.add(dir.toPath());
+        }
+        if ( classpath != null ) {
+            for ( String element : classpath.list() ) {
+                elements.add(getProject().resolveFile(element).toPath());
+            }
+        }
+        return elements;
+    }
+
+    private java.nio.file.Path indexFile(File dir) {
+        Digester digester = new Digester();
+        digester.writeUTF(dir.getPath());
+        StringBuilder name = new StringBuilder("build-index-");
+        for ( byte b : digester.digest() ) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return new File(indexDir, name.append(".dat").toString()).toPath();
+    }
 
 }
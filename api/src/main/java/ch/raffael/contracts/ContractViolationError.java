@@ -15,9 +15,121 @@
  */
 package ch.raffael.contracts;
 
+import ch.raffael.contracts.internal.SourceLocation;
+
+
 /**
+ * Thrown when a contract is violated.
+ *
+ * Capturing the stack trace is by far the most expensive part of creating a violation,
+ * so it can be turned off (see
+ * {@link ch.raffael.contracts.internal.ContractsContext#setCaptureStackTraces(boolean)}).
+ * The stack isn't walked at all then, the stack trace consists of a single synthetic
+ * frame built from the {@link SourceLocation} of the contract.
+ *
+ * There's no mode capturing only the top frames of the stack: Java 8 can only walk the
+ * whole stack, so a truncated stack trace would be as expensive as the full one.
+ *
+ * For contracts violated very often, a preallocated violation may be reused (see
+ * {@link #preallocated(String, SourceLocation)}). Preallocated violations have no
+ * stack trace other than the synthetic frame and their stack trace cannot be changed.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public class ContractViolationError extends AssertionError {
 
+    private static final StackTraceElement[] EMPTY_STACK_TRACE = new StackTraceElement[0];
+
+    private final SourceLocation sourceLocation;
+    private final boolean preallocated;
+    /**
+     * `false` while the super constructor is running, see {@link #fillInStackTrace()}.
+     */
+    private final boolean constructed;
+
+    public ContractViolationError() {
+        this(null, null, true, false);
+    }
+
+    public ContractViolationError(@Nullable String message, @Nullable SourceLocation sourceLocation) {
+        this(message, sourceLocation, true, false);
+    }
+
+    /**
+     * @param captureStackTrace `false` to use a synthetic frame built from the source
+     *                          location instead of capturing the stack trace.
+     */
+    public ContractViolationError(@Nullable String message, @Nullable SourceLocation sourceLocation, boolean captureStackTrace) {
+        this(message, sourceLocation, captureStackTrace, false);
+    }
+
+    private ContractViolationError(@Nullable String message, @Nullable SourceLocation sourceLocation, boolean captureStackTrace, boolean preallocated) {
+        super(message, null);
+        this.sourceLocation = sourceLocation;
+        this.preallocated = preallocated;
+        constructed = true;
+        if ( captureStackTrace ) {
+            // the JVM omits the constructor frames of throwables, so this is
+            // equivalent to the call in Throwable's constructor
+            super.fillInStackTrace();
+        }
+        else {
+            super.setStackTrace(syntheticStackTrace(sourceLocation));
+        }
+    }
+
+    /**
+     * Create a violation meant to be thrown over and over again. Its stack trace is a
+     * single synthetic frame built from the source location and it cannot be changed.
+     * Note that suppressed exceptions may still be added to it by `try`-with-resources,
+     * as there's no way to disable that in an `AssertionError`.
+     */
+    @NotNull
+    public static ContractViolationError preallocated(@Nullable String message, @Nullable SourceLocation sourceLocation) {
+        return new ContractViolationError(message, sourceLocation, false, true);
+    }
+
+    /**
+     * The location of the violated contract in the source code, if known.
+     */
+    @Nullable
+    public SourceLocation getSourceLocation() {
+        return sourceLocation;
+    }
+
+    public boolean isPreallocated() {
+        return preallocated;
+    }
+
+    /**
+     * Throwable's constructor calls this method before our fields are initialised;
+     * we ignore that call and fill in the stack trace in our own constructor, if
+     * requested.
+     */
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        if ( !constructed || preallocated ) {
+            return this;
+        }
+        return super.fillInStackTrace();
+    }
+
+    @Override
+    public void setStackTrace(StackTraceElement[] stackTrace) {
+        if ( preallocated ) {
+            throw new UnsupportedOperationException("Cannot change the stack trace of a preallocated violation");
+        }
+        super.setStackTrace(stackTrace);
+    }
+
+    @NotNull
+    private static StackTraceElement[] syntheticStackTrace(@Nullable SourceLocation sourceLocation) {
+        if ( sourceLocation == null ) {
+            return EMPTY_STACK_TRACE;
+        }
+        return new StackTraceElement[] {
+                new StackTraceElement(sourceLocation.className(), sourceLocation.methodName(),
+                                      sourceLocation.fileName(), sourceLocation.lineNumber()) };
+    }
+
 }
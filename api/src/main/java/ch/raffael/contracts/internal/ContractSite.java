@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.internal;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+
+
+/**
+ * Runtime statistics and state of a single contract within a {@link ContractsContext}.
+ * Instrumented code surrounds the evaluation of the contract with {@link #enter()} and
+ * {@link #exit(long)}:
+ *
+ * ```java
+ * long start = SITE.enter();
+ * if ( start != ContractSite.SKIP ) {
+ *     try {
+ *         // evaluate the contract
+ *     }
+ *     finally {
+ *         SITE.exit(start);
+ *     }
+ * }
+ * ```
+ *
+ * If the context defines a time budget (see {@link ContractsContext#setTimeBudget(long)}),
+ * the contract will downgrade itself when the average cost per call exceeds that budget:
+ * It will be sampled with a rate that brings the average cost back into the budget or,
+ * if that rate would be higher than {@link #MAX_SAMPLING_RATE}, be disabled. Downgrades
+ * are reported through {@link ContractsContext}; {@link #restore()} reverts them.
+ *
+ * When a contract is violated, the instrumented code creates the violation like this:
+ *
+ * ```java
+ * ContractViolationError violation = SITE.sharedViolation(MESSAGE, LOCATION);
+ * if ( violation == null ) {
+ *     violation = new ContractViolationError(MESSAGE, LOCATION, SITE.getContext().isCaptureStackTraces());
+ * }
+ * SITE.getContext().violation(violation);
+ * ```
+ *
+ * For contracts known to be violated very often, {@link #setReuseViolations(boolean)}
+ * makes the site reuse a single preallocated violation.
+ *
+ * Time is measured using {@link System#nanoTime()}, i.e. it's wall-clock time, not CPU
+ * time. Measuring CPU time per call would be far more expensive than most contracts.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class ContractSite {
+
+    /**
+     * Returned by {@link #enter()} if the contract should not be evaluated.
+     */
+    public static final long SKIP = Long.MIN_VALUE;
+
+    /**
+     * The minimum number of evaluations before a contract will be downgraded.
+     */
+    public static final long MIN_EVALUATIONS = 100;
+
+    /**
+     * The maximum sampling rate for downgraded contracts; if the budget requires a
+     * higher rate, the contract will be disabled.
+     */
+    public static final int MAX_SAMPLING_RATE = 10000;
+
+    private final ContractsContext context;
+    private final String id;
+
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * 1: evaluate always, >1: sampled, 0: disabled.
+     */
+    private volatile int samplingRate = 1;
+
+    private volatile boolean reuseViolations = false;
+    private volatile ContractViolationError sharedViolation = null;
+
+    ContractSite(@NotNull ContractsContext context, @NotNull String id) {
+        this.context = context;
+        this.id = id;
+    }
+
+    @Override
+    public String toString() {
+        long count = evaluations.sum();
+        long total = totalNanos.sum();
+        return "ContractSite[" + context.getName() + "#" + id
+                + ",state=" + getState()
+                + ",evaluations=" + count
+                + ",totalNanos=" + total
+                + ",averageNanos=" + (count == 0 ? 0 : total / count)
+                + ",maxNanos=" + maxNanos.get() + "]";
+    }
+
+    @NotNull
+    public ContractsContext getContext() {
+        return context;
+    }
+
+    @NotNull
+    public String getId() {
+        return id;
+    }
+
+    @NotNull
+    public State getState() {
+        int rate = samplingRate;
+        if ( rate == 1 ) {
+            return State.ACTIVE;
+        }
+        else if ( rate == 0 ) {
+            return State.DISABLED;
+        }
+        else {
+            return State.SAMPLED;
+        }
+    }
+
+    /**
+     * The sampling rate of a downgraded contract, 1 if the contract is active, 0 if it's
+     * disabled.
+     */
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    public boolean isReuseViolations() {
+        return reuseViolations;
+    }
+
+    public void setReuseViolations(boolean reuseViolations) {
+        this.reuseViolations = reuseViolations;
+        if ( !reuseViolations ) {
+            sharedViolation = null;
+        }
+    }
+
+    /**
+     * Get the preallocated violation of this site, if reusing violations is enabled.
+     *
+     * @return The preallocated violation or `null`, if violations should not be reused.
+     */
+    @Nullable
+    public ContractViolationError sharedViolation(@Nullable String message, @Nullable SourceLocation location) {
+        if ( !reuseViolations ) {
+            return null;
+        }
+        ContractViolationError violation = sharedViolation;
+        if ( violation == null ) {
+            // racy, but it doesn't matter if we create a few more than one
+            violation = ContractViolationError.preallocated(message, location);
+            sharedViolation = violation;
+        }
+        return violation;
+    }
+
+    /**
+     * Start evaluating the contract.
+     *
+     * @return The start time to be passed to {@link #exit(long)} or {@link #SKIP}, if the
+     * contract has been downgraded and should not be evaluated.
+     */
+    public long enter() {
+        int rate = samplingRate;
+        if ( rate == 1 || (rate > 1 && ThreadLocalRandom.current().nextInt(rate) == 0) ) {
+            return System.nanoTime();
+        }
+        else {
+            return SKIP;
+        }
+    }
+
+    /**
+     * Finish evaluating the contract.
+     *
+     * @param start The value returned by {@link #enter()}.
+     */
+    public void exit(long start) {
+        if ( start == SKIP ) {
+            return;
+        }
+        long elapsed = System.nanoTime() - start;
+        evaluations.increment();
+        totalNanos.add(elapsed);
+        long max;
+        while ( elapsed > (max = maxNanos.get()) ) {
+            if ( maxNanos.compareAndSet(max, elapsed) ) {
+                break;
+            }
+        }
+        long budget = context.getTimeBudget();
+        if ( budget > 0 && elapsed > budget ) {
+            // only slow calls can push the average over the budget, so we
+            // don't need to check anything on the fast path
+            checkBudget(budget);
+        }
+    }
+
+    private void checkBudget(long budget) {
+        synchronized ( this ) {
+            int rate = samplingRate;
+            long count = evaluations.sum();
+            if ( rate == 0 || count < MIN_EVALUATIONS ) {
+                return;
+            }
+            long average = totalNanos.sum() / count;
+            if ( average / rate <= budget ) {
+                return;
+            }
+            long newRate = (average + budget - 1) / budget;
+            samplingRate = newRate > MAX_SAMPLING_RATE ? 0 : (int)newRate;
+        }
+        context.downgraded(this);
+    }
+
+    /**
+     * Revert any downgrades and reset the statistics.
+     */
+    public void restore() {
+        synchronized ( this ) {
+            samplingRate = 1;
+            evaluations.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+    }
+
+    public static enum State {
+        ACTIVE, SAMPLED, DISABLED
+    }
+
+}
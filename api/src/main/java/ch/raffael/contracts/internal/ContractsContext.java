@@ -15,29 +15,103 @@
  */
 package ch.raffael.contracts.internal;
 
-import java.util.HashMap;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
 
 import ch.raffael.contracts.ContractViolationError;
 import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
 
 
 /**
+ * A hierarchical switch for contracts, usually one per package or class.
+ *
+ * The enabled state is exposed in two ways: The plain {@link #isEnabled()} reads a
+ * volatile field, while {@link #bootstrapEnabled(MethodHandles.Lookup, String, MethodType)
+ * bootstrapEnabled()} and {@link #enabledInvoker()} expose a {@link MutableCallSite}
+ * that returns a constant. The JIT compiler will fold the constant into the caller, so a
+ * disabled contract costs nothing at all. Enabling or disabling a context re-links only
+ * the call sites of the contexts whose state actually changed, which in turn will only
+ * deoptimize the code depending on these call sites.
+ *
+ * Contexts may also be configured to evaluate contracts for only 1 in *n* calls (see
+ * {@link #setSamplingRate(int)}). The sampling decision uses
+ * {@link ThreadLocalRandom}, so there's no contention between threads. If a sampling
+ * rate is set, the call site returns the sampling decision instead of a constant.
+ * Like the enabled state, the sampling rate is inherited by all child contexts.
+ *
+ * Each contract within a context is represented by a {@link ContractSite}, which tracks
+ * the cost of evaluating the contract. If the context defines a time budget, contracts
+ * exceeding it will downgrade themselves to sampling or be disabled. The time budget is
+ * inherited by child contexts, too.
+ *
+ * Contexts in report-only mode don't throw violations, they're only reported to the
+ * agent (see {@link #violation(ContractViolationError)}). Report-only mode is inherited
+ * by child contexts as well.
+ *
+ * Whether violations capture their stack trace (see {@link ContractViolationError}) is
+ * configured per context and inherited, too.
+ *
+ * Looking up existing contexts is lock-free and doesn't allocate: Contexts by name live
+ * in a {@link ConcurrentMap}, contexts by class are additionally memoized in a
+ * {@link ClassValue}. Only the creation of new contexts and changing their state
+ * synchronizes on the global registry.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public final class ContractsContext {
 
     public static final String ROOT_NAME = "*";
 
+    private static final MethodType ENABLED_TYPE = MethodType.methodType(boolean.class);
+    private static final MethodHandle ENABLED = MethodHandles.constant(boolean.class, true);
+    private static final MethodHandle DISABLED = MethodHandles.constant(boolean.class, false);
+    private static final MethodHandle SAMPLE;
+    static {
+        try {
+            SAMPLE = MethodHandles.lookup().findStatic(ContractsContext.class, "sample", MethodType.methodType(boolean.class, int.class));
+        }
+        catch ( NoSuchMethodException | IllegalAccessException e ) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     private static final ContractsContext ROOT = new ContractsContext("");
     private static final Log LOG = Log.getInstance();
 
-    private static final Map<String, ContractsContext> CONTEXTS = new HashMap<String, ContractsContext>();
+    private static final ConcurrentMap<String, ContractsContext> CONTEXTS = new ConcurrentHashMap<>();
+    private static final ClassValue<ContractsContext> CLASS_CONTEXTS = new ClassValue<ContractsContext>() {
+        @Override
+        protected ContractsContext computeValue(Class<?> type) {
+            Class<?> outer = type;
+            while ( outer.getEnclosingClass() != null ) {
+                outer = outer.getEnclosingClass();
+            }
+            return getOrCreateContext(outer.getName());
+        }
+    };
 
     private final String name;
     private final LinkedList<ContractsContext> children = new LinkedList<ContractsContext>();
+    private final MutableCallSite enabledSite = new MutableCallSite(DISABLED);
     private volatile boolean enabled;
+    private volatile int samplingRate = 1;
+    private volatile long timeBudget = 0;
+    private volatile boolean reportOnly = false;
+    private volatile boolean captureStackTraces = true;
+
+    private final ConcurrentMap<String, ContractSite> sites = new ConcurrentHashMap<>();
 
     private ContractsContext(@NotNull String name) {
         this.name = name;
@@ -48,40 +122,56 @@ public final class ContractsContext {
         return "ContractsPolicy[" + name + "]";
     }
 
+    @NotNull
+    public String getName() {
+        return name;
+    }
+
     @NotNull
     public static ContractsContext getContext(@NotNull String name) {
         ContractsContext context;
         if ( name.equals(ROOT_NAME) ) {
             return ROOT;
         }
-        synchronized ( CONTEXTS ) {
-            context = CONTEXTS.get(name);
-            if ( context != null ) {
-                return context;
-            }
-            if ( !ROOT_NAME.equals(name) ) {
-                boolean firstChar = true;
-                for ( int i = 0; i < name.length(); i++ ) {
-                    char c = name.charAt(i);
-                    if ( firstChar ) {
-                        if ( !Character.isJavaIdentifierStart(c) ) {
-                            throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
-                        }
-                        firstChar = false;
-                    }
-                    else {
-                        if ( c == '.' ) {
-                            firstChar = true;
-                        }
-                        else if ( !Character.isJavaIdentifierPart(c) ) {
-                            throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
-                        }
+        context = CONTEXTS.get(name);
+        if ( context != null ) {
+            return context;
+        }
+        if ( !ROOT_NAME.equals(name) ) {
+            boolean firstChar = true;
+            for ( int i = 0; i < name.length(); i++ ) {
+                char c = name.charAt(i);
+                if ( firstChar ) {
+                    if ( !Character.isJavaIdentifierStart(c) ) {
+                        throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
                     }
+                    firstChar = false;
                 }
-                if ( firstChar ) {
-                    throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
+                else {
+                    if ( c == '.' ) {
+                        firstChar = true;
+                    }
+                    else if ( !Character.isJavaIdentifierPart(c) ) {
+                        throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
+                    }
                 }
             }
+            if ( firstChar ) {
+                throw new IllegalArgumentException("Illegal policy name: '" + name + "'");
+            }
+        }
+        synchronized ( CONTEXTS ) {
+            return getContext0(name);
+        }
+    }
+
+    @NotNull
+    private static ContractsContext getOrCreateContext(@NotNull String name) {
+        ContractsContext context = CONTEXTS.get(name);
+        if ( context != null ) {
+            return context;
+        }
+        synchronized ( CONTEXTS ) {
             return getContext0(name);
         }
     }
@@ -100,6 +190,13 @@ public final class ContractsContext {
             else {
                 parent = getContext0(name.substring(0, pos));
             }
+            context.enabled = parent.enabled;
+            context.samplingRate = parent.samplingRate;
+            context.timeBudget = parent.timeBudget;
+            context.reportOnly = parent.reportOnly;
+            context.captureStackTraces = parent.captureStackTraces;
+            // not linked anywhere yet, no need to sync
+            context.enabledSite.setTarget(context.siteTarget());
             parent.children.add(context);
             CONTEXTS.put(name, context);
         }
@@ -108,56 +205,262 @@ public final class ContractsContext {
 
     @NotNull
     public static ContractsContext getContext(@NotNull Class<?> clazz) {
-        Class<?> outer = clazz;
-        while ( outer.getEnclosingClass() != null ) {
-            outer = outer.getEnclosingClass();
-        }
-        synchronized ( CONTEXTS ) {
-            return getContext0(outer.getName());
-        }
+        return CLASS_CONTEXTS.get(clazz);
     }
 
     @NotNull
     public static ContractsContext getContext(@NotNull Package pkg) {
-        synchronized ( CONTEXTS ) {
-            return getContext0(pkg.getName());
+        return getOrCreateContext(pkg.getName());
+    }
+
+    /**
+     * Bootstrap method for `invokedynamic` instructions checking whether contracts should
+     * be evaluated. The context is determined by the caller's class, the call site type
+     * must be `()Z`.
+     *
+     * All `invokedynamic` instructions of a context are linked to the same call site,
+     * returning a constant `true` or `false` or, if sampling is active, the sampling
+     * decision.
+     */
+    @NotNull
+    public static CallSite bootstrapEnabled(@NotNull MethodHandles.Lookup caller, @NotNull String name, @NotNull MethodType type) {
+        if ( !ENABLED_TYPE.equals(type) ) {
+            throw new IllegalArgumentException("Illegal call site type for enabled check: " + type);
         }
+        return getContext(caller.lookupClass()).enabledSite;
+    }
+
+    /**
+     * Returns a method handle of type `()Z` that checks whether contracts should be
+     * evaluated, with the same semantics as {@link #shouldEvaluate()}. Invoke it from a
+     * `static final` field for the JIT compiler to be able to fold it.
+     */
+    @NotNull
+    public MethodHandle enabledInvoker() {
+        return enabledSite.dynamicInvoker();
     }
 
     public boolean isEnabled() {
         return enabled;
     }
 
+    /**
+     * Check whether contracts should be evaluated for the current call, i.e. whether
+     * the context is enabled and the call has been chosen by sampling.
+     */
+    public boolean shouldEvaluate() {
+        if ( !enabled ) {
+            return false;
+        }
+        int rate = samplingRate;
+        return rate == 1 || sample(rate);
+    }
+
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * Evaluate contracts for 1 in `rate` calls only. A rate of 1 evaluates contracts
+     * on every call.
+     */
+    public void setSamplingRate(int rate) {
+        if ( rate < 1 ) {
+            throw new IllegalArgumentException("Illegal sampling rate: " + rate);
+        }
+        synchronized ( CONTEXTS ) {
+            LOG.info("Setting sampling rate for %s to 1/%d", name, rate);
+            List<MutableCallSite> changedSites = new ArrayList<>();
+            setSamplingRate0(rate, changedSites);
+            syncSites(changedSites);
+        }
+    }
+
+    private void setSamplingRate0(int rate, List<MutableCallSite> changedSites) {
+        if ( samplingRate != rate ) {
+            samplingRate = rate;
+            if ( enabled ) {
+                relink(changedSites);
+            }
+        }
+        for ( ContractsContext child : children ) {
+            child.setSamplingRate0(rate, changedSites);
+        }
+    }
+
     public void enable() {
         synchronized ( CONTEXTS ) {
             LOG.info("Enabling contracts for %s", name);
-            enable0();
+            List<MutableCallSite> changedSites = new ArrayList<>();
+            enable0(changedSites);
+            syncSites(changedSites);
         }
     }
 
-    private void enable0() {
-        enabled = true;
+    private void enable0(List<MutableCallSite> changedSites) {
+        if ( !enabled ) {
+            enabled = true;
+            relink(changedSites);
+        }
         for ( ContractsContext child : children ) {
-            child.enable0();
+            child.enable0(changedSites);
         }
     }
 
     public void disable() {
         synchronized ( CONTEXTS ) {
             LOG.info("Disabling contracts for %s", name);
-            disable0();
+            List<MutableCallSite> changedSites = new ArrayList<>();
+            disable0(changedSites);
+            syncSites(changedSites);
+        }
+    }
+
+    private void disable0(List<MutableCallSite> changedSites) {
+        if ( enabled ) {
+            enabled = false;
+            relink(changedSites);
+        }
+        for ( ContractsContext child : children ) {
+            child.disable0(changedSites);
+        }
+    }
+
+    /**
+     * The maximum average time in nanoseconds a single contract may take per call
+     * before being downgraded, 0 if there's no limit.
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    public void setTimeBudget(long nanos) {
+        if ( nanos < 0 ) {
+            throw new IllegalArgumentException("Illegal time budget: " + nanos);
+        }
+        synchronized ( CONTEXTS ) {
+            LOG.info("Setting time budget for %s to %dns", name, nanos);
+            setTimeBudget0(nanos);
+        }
+    }
+
+    private void setTimeBudget0(long nanos) {
+        timeBudget = nanos;
+        for ( ContractsContext child : children ) {
+            child.setTimeBudget0(nanos);
+        }
+    }
+
+    /**
+     * Whether violations are only reported instead of thrown.
+     */
+    public boolean isReportOnly() {
+        return reportOnly;
+    }
+
+    public void setReportOnly(boolean reportOnly) {
+        synchronized ( CONTEXTS ) {
+            LOG.info("Setting report-only mode for %s to %s", name, reportOnly);
+            setReportOnly0(reportOnly);
+        }
+    }
+
+    private void setReportOnly0(boolean reportOnly) {
+        this.reportOnly = reportOnly;
+        for ( ContractsContext child : children ) {
+            child.setReportOnly0(reportOnly);
+        }
+    }
+
+    /**
+     * Whether new violations in this context capture their stack trace, see
+     * {@link ContractViolationError#ContractViolationError(String, SourceLocation, boolean)}.
+     */
+    public boolean isCaptureStackTraces() {
+        return captureStackTraces;
+    }
+
+    public void setCaptureStackTraces(boolean captureStackTraces) {
+        synchronized ( CONTEXTS ) {
+            LOG.info("Setting stack trace capture for %s to %s", name, captureStackTraces);
+            setCaptureStackTraces0(captureStackTraces);
         }
     }
 
-    private void disable0() {
-        enabled = false;
+    private void setCaptureStackTraces0(boolean captureStackTraces) {
+        this.captureStackTraces = captureStackTraces;
         for ( ContractsContext child : children ) {
-            child.disable0();
+            child.setCaptureStackTraces0(captureStackTraces);
+        }
+    }
+
+    /**
+     * Get the {@link ContractSite} with the specified ID, creating it if necessary.
+     */
+    @NotNull
+    public ContractSite getSite(@NotNull String id) {
+        ContractSite site = sites.get(id);
+        if ( site == null ) {
+            site = sites.computeIfAbsent(id, i -> new ContractSite(this, i));
+        }
+        return site;
+    }
+
+    @Nullable
+    public ContractSite findSite(@NotNull String id) {
+        return sites.get(id);
+    }
+
+    @NotNull
+    public Collection<ContractSite> getSites() {
+        return Collections.unmodifiableCollection(sites.values());
+    }
+
+    /**
+     * Called when a contract has been downgraded because it exceeded the time budget.
+     * The agent will hook into this method.
+     */
+    void downgraded(@NotNull ContractSite site) {
+        LOG.info("Contract %s exceeded the time budget of %dns: %s", site.getId(), timeBudget, site);
+    }
+
+    private void relink(List<MutableCallSite> changedSites) {
+        enabledSite.setTarget(siteTarget());
+        changedSites.add(enabledSite);
+    }
+
+    @NotNull
+    private MethodHandle siteTarget() {
+        if ( !enabled ) {
+            return DISABLED;
+        }
+        else if ( samplingRate == 1 ) {
+            return ENABLED;
         }
+        else {
+            return MethodHandles.insertArguments(SAMPLE, 0, samplingRate);
+        }
+    }
+
+    private static boolean sample(int rate) {
+        return ThreadLocalRandom.current().nextInt(rate) == 0;
     }
 
+    private static void syncSites(List<MutableCallSite> sites) {
+        if ( !sites.isEmpty() ) {
+            MutableCallSite.syncAll(sites.toArray(new MutableCallSite[sites.size()]));
+        }
+    }
+
+    /**
+     * Called on contract violations. The agent will hook into this method to report the
+     * violation before it's thrown. In report-only mode, the violation is not thrown,
+     * so without the agent, it will go unnoticed.
+     */
     public void violation(ContractViolationError violation) {
-        throw violation;
+        if ( !reportOnly ) {
+            throw violation;
+        }
     }
 
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2012-2013 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts
+
+import ch.raffael.contracts.internal.SourceLocation
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ContractViolationErrorSpec extends Specification {
+
+    def "Full stack trace starts at the caller"() {
+      when:
+        def violation = new ContractViolationError('test', null, true)
+
+      then:
+        violation.stackTrace.length > 1
+        violation.stackTrace[0].className != ContractViolationError.name
+    }
+
+    def "Without stack trace, a synthetic frame is built from the source location"() {
+      given:
+        def location = Stub(SourceLocation) {
+            className() >> 'com.example.Foo'
+            methodName() >> 'bar'
+            fileName() >> 'Foo.java'
+            lineNumber() >> 42
+        }
+
+      when:
+        def violation = new ContractViolationError('test', location, false)
+
+      then:
+        violation.stackTrace == [new StackTraceElement('com.example.Foo', 'bar', 'Foo.java', 42)] as StackTraceElement[]
+        violation.sourceLocation.is(location)
+    }
+
+    def "Preallocated violations cannot be changed"() {
+      given:
+        def violation = ContractViolationError.preallocated('test', null)
+
+      when:
+        violation.fillInStackTrace()
+
+      then:
+        violation.stackTrace.length == 0
+
+      when:
+        violation.stackTrace = new StackTraceElement[0]
+
+      then:
+        thrown(UnsupportedOperationException)
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.internal
+
+import spock.lang.Specification
+
+import java.util.logging.Handler
+import java.util.logging.LogRecord
+import java.util.logging.Logger
+
+import static ch.raffael.contracts.internal.ContractsContext.getContext
+
+
+/**
+ * The elapsed time of an evaluation is simulated by passing a start time in the past to
+ * `exit()`. The budgets are chosen so the time actually elapsing in the spec doesn't
+ * change the resulting sampling rates.
+ *
+ * Downgrades are observed through the log message of `ContractsContext.downgraded()`.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ContractSiteSpec extends Specification {
+
+    final static long MS = 1000000
+
+    final ContractsContext context = getContext('$' + UUID.randomUUID().toString().replaceAll('-', ''))
+    final DowngradeRecorder downgrades = new DowngradeRecorder()
+
+    def setup() {
+        Logger.getLogger('ch.raffael.util.contracts').addHandler(downgrades)
+    }
+
+    def cleanup() {
+        Logger.getLogger('ch.raffael.util.contracts').removeHandler(downgrades)
+    }
+
+    def "Contracts are not downgraded before MIN_EVALUATIONS"() {
+      given:
+        context.setTimeBudget(1 * MS)
+        def site = context.getSite('pre:0')
+
+      when:
+        evaluate(site, 3 * MS, ContractSite.MIN_EVALUATIONS - 1)
+
+      then:
+        site.state == ContractSite.State.ACTIVE
+        site.samplingRate == 1
+        downgrades.messages.empty
+
+      when:
+        evaluate(site, 3 * MS, 1)
+
+      then:
+        site.state == ContractSite.State.SAMPLED
+        downgrades.messages.size() == 1
+    }
+
+    def "Downgraded contracts are sampled with the rate bringing the average into the budget"() {
+      given:
+        context.setTimeBudget(1 * MS)
+        def site = context.getSite('pre:0')
+
+      when:
+        evaluate(site, elapsed, ContractSite.MIN_EVALUATIONS)
+
+      then:
+        site.state == ContractSite.State.SAMPLED
+        site.samplingRate == rate
+
+      where:
+        elapsed      | rate
+        1.5 * MS     | 2
+        2.5 * MS     | 3
+        9.5 * MS     | 10
+    }
+
+    def "Contracts are disabled if the required sampling rate exceeds MAX_SAMPLING_RATE"() {
+      given:
+        context.setTimeBudget(1000)
+        def site = context.getSite('pre:0')
+
+      when:
+        evaluate(site, (ContractSite.MAX_SAMPLING_RATE + 500) * 1000, ContractSite.MIN_EVALUATIONS)
+
+      then:
+        site.state == ContractSite.State.DISABLED
+        site.samplingRate == 0
+        site.enter() == ContractSite.SKIP
+        downgrades.messages.size() == 1
+    }
+
+    def "Downgrades are reported exactly once"() {
+      given:
+        context.setTimeBudget(1 * MS)
+        def site = context.getSite('inv:0')
+
+      when:
+        evaluate(site, 2.5 * MS, 3 * ContractSite.MIN_EVALUATIONS)
+
+      then:
+        site.samplingRate == 3
+        downgrades.messages.size() == 1
+        downgrades.messages[0].contains('inv:0')
+    }
+
+    def "Restoring a contract resets its sampling rate and statistics"() {
+      given:
+        context.setTimeBudget(1 * MS)
+        def site = context.getSite('post:0')
+        evaluate(site, 2.5 * MS, ContractSite.MIN_EVALUATIONS)
+
+      when:
+        site.restore()
+
+      then:
+        site.state == ContractSite.State.ACTIVE
+        site.samplingRate == 1
+        site.evaluations == 0
+        site.totalNanos == 0
+        site.maxNanos == 0
+
+      when:
+        evaluate(site, 2.5 * MS, ContractSite.MIN_EVALUATIONS - 1)
+
+      then:
+        site.state == ContractSite.State.ACTIVE
+        downgrades.messages.size() == 1
+    }
+
+    private static void evaluate(ContractSite site, Number elapsed, long times) {
+        times.times {
+            site.exit(System.nanoTime() - (elapsed as long))
+        }
+    }
+
+    private static class DowngradeRecorder extends Handler {
+
+        final List<String> messages = []
+
+        @Override
+        void publish(LogRecord record) {
+            if ( record.message.contains('exceeded the time budget') ) {
+                messages << record.message
+            }
+        }
+
+        @Override
+        void flush() {
+        }
+
+        @Override
+        void close() {
+        }
+    }
+
+}
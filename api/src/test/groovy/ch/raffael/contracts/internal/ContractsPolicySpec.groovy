@@ -15,8 +15,12 @@
  */
 package ch.raffael.contracts.internal
 
+import ch.raffael.contracts.ContractViolationError
 import spock.lang.Specification
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
 import static ch.raffael.contracts.internal.ContractsContext.getContext
 
 /**
@@ -85,6 +89,110 @@ class ContractsPolicySpec extends Specification {
         p.name == ContractsPolicySpec.getPackage().getName()
     }
 
+    def "Concurrent lookups return the same context"() {
+      given:
+        def name = '$' + UUID.randomUUID().toString().replaceAll('-', '.\\$')
+        def executor = Executors.newFixedThreadPool(8)
+
+      when:
+        def contexts = (1..64).collect { executor.submit({ getContext(name) } as Callable) }*.get()
+
+      then:
+        contexts.every { it.is(contexts[0]) }
+
+      cleanup:
+        executor.shutdown()
+    }
+
+    def "Lookups by class are memoized"() {
+      when:
+        def p = getContext(ContractsPolicySpec.Inner)
+
+      then:
+        p.is(getContext(ContractsPolicySpec))
+        p.is(getContext(ContractsPolicySpec.name))
+    }
+
+    def "Sampling rate is inherited by children"() {
+      given:
+        def parent = '$' + UUID.randomUUID().toString().replaceAll('-', '')
+        def existing = getContext(parent + '.existing')
+
+      when:
+        getContext(parent).setSamplingRate(10)
+
+      then:
+        existing.samplingRate == 10
+        getContext(parent + '.created').samplingRate == 10
+    }
+
+    def "Disabled contexts are never sampled"() {
+      given:
+        def p = getContext('$' + UUID.randomUUID().toString().replaceAll('-', ''))
+
+      when:
+        p.setSamplingRate(rate)
+
+      then:
+        !p.shouldEvaluate()
+        !(boolean)p.enabledInvoker().invoke()
+
+      where:
+        rate << [1, 2]
+    }
+
+    def "Illegal sampling rates throw IllegalArgumentException"() {
+      when:
+        getContext(ContractsPolicySpec).setSamplingRate(0)
+
+      then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "Time budget is inherited by children"() {
+      given:
+        def parent = '$' + UUID.randomUUID().toString().replaceAll('-', '')
+        def existing = getContext(parent + '.existing')
+
+      when:
+        getContext(parent).setTimeBudget(1000)
+
+      then:
+        existing.timeBudget == 1000
+        getContext(parent + '.created').timeBudget == 1000
+    }
+
+    def "Contract sites are created once per ID"() {
+      given:
+        def p = getContext(ContractsPolicySpec)
+
+      expect:
+        p.getSite('pre:0').is(p.getSite('pre:0'))
+        p.findSite('pre:0').is(p.getSite('pre:0'))
+        p.findSite('nonexistent') == null
+    }
+
+    def "Violations are only thrown if not in report-only mode"() {
+      given:
+        def parent = '$' + UUID.randomUUID().toString().replaceAll('-', '')
+        def existing = getContext(parent + '.existing')
+
+      when:
+        getContext(parent).setReportOnly(true)
+        existing.violation(new ContractViolationError())
+        getContext(parent + '.created').violation(new ContractViolationError())
+
+      then:
+        notThrown(ContractViolationError)
+
+      when:
+        getContext(parent).setReportOnly(false)
+        existing.violation(new ContractViolationError())
+
+      then:
+        thrown(ContractViolationError)
+    }
+
     private class Inner {}
 
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import org.openjdk.jmh.Main;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+
+/**
+ * Runs the benchmarks like JMH's own main class, but writes the results as JSON by
+ * default so they can be compared release over release. The file name defaults to
+ * `contracts-benchmarks-<version>.json`; both can be overridden using JMH's `-rf` and
+ * `-rff` options.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if ( commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListProfilers() ) {
+            Main.main(args);
+            return;
+        }
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if ( !commandLine.getResultFormat().hasValue() ) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if ( !commandLine.getResult().hasValue() ) {
+            options.result("contracts-benchmarks-" + getVersion() + ".json");
+        }
+        new Runner(options.build()).run();
+    }
+
+    private static String getVersion() {
+        String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.raffael.contracts.processor.cel.Compiler;
+import ch.raffael.contracts.processor.cel.Location;
+import ch.raffael.contracts.processor.cel.ParseException;
+import ch.raffael.contracts.processor.cel.parser.AstBuilder;
+import ch.raffael.contracts.processor.cel.parser.CelLexer;
+import ch.raffael.contracts.processor.cel.parser.CelParser;
+import ch.raffael.contracts.processor.cel.parser.CelParserPool;
+
+
+/**
+ * The cost of the Cel compiler front end. Each benchmark processes a whole corpus of
+ * expressions:
+ *
+ *  *  `cel-ast-corpus.txt` contains expressions the {@link AstBuilder} supports,
+ *  *  `cel-parser-corpus.txt` contains expressions using constructs the AST builder
+ *     doesn't support yet.
+ *
+ * Lines starting with `//` are comments.
+ *
+ * Lexing and parsing use both corpora, building the AST and `Compiler.parse()` only the
+ * first one. `parseAstCorpus` parses the AST corpus without building the AST, so the
+ * difference to `buildAst` is the cost of the AST builder. `buildAst` creates a new lexer
+ * and parser for each expression, `pooledBuildAst` reuses them through the
+ * {@link CelParserPool} like `Compiler.parse()` does. `compilerParse` uses the default
+ * two-stage strategy (SLL, then LL if necessary), `compilerParseLL` full LL prediction
+ * only.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class CelFrontEndBenchmark {
+
+    private static final Location LOCATION = new Location(CelFrontEndBenchmark.class.getName(), 1, 0);
+
+    private List<String> astCorpus;
+    private List<String> fullCorpus;
+
+    @Setup
+    public void setup() throws IOException {
+        astCorpus = loadCorpus("cel-ast-corpus.txt");
+        fullCorpus = new ArrayList<>(astCorpus);
+        fullCorpus.addAll(loadCorpus("cel-parser-corpus.txt"));
+    }
+
+    @Benchmark
+    public void lex(Blackhole blackhole) {
+        for ( String expression : fullCorpus ) {
+            CelLexer lexer = new CelLexer(new ANTLRInputStream(expression));
+            lexer.removeErrorListeners();
+            Token token;
+            do {
+                token = lexer.nextToken();
+                blackhole.consume(token);
+            } while ( token.getType() != Token.EOF );
+        }
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        for ( String expression : fullCorpus ) {
+            blackhole.consume(newParser(expression).clause());
+        }
+    }
+
+    @Benchmark
+    public void parseAstCorpus(Blackhole blackhole) {
+        for ( String expression : astCorpus ) {
+            blackhole.consume(newParser(expression).clause());
+        }
+    }
+
+    @Benchmark
+    public void buildAst(Blackhole blackhole) {
+        for ( String expression : astCorpus ) {
+            blackhole.consume(new AstBuilder().install(newParser(expression)).clause().node);
+        }
+    }
+
+    @Benchmark
+    public void pooledBuildAst(Blackhole blackhole) {
+        CelParserPool pool = CelParserPool.get();
+        for ( String expression : astCorpus ) {
+            blackhole.consume(pool.parser(expression, ConsoleErrorListener.INSTANCE).clause().node);
+        }
+    }
+
+    @Benchmark
+    public void compilerParse(Blackhole blackhole) throws ParseException {
+        compilerParse(blackhole, Compiler.Strategy.SLL_THEN_LL);
+    }
+
+    @Benchmark
+    public void compilerParseLL(Blackhole blackhole) throws ParseException {
+        compilerParse(blackhole, Compiler.Strategy.LL);
+    }
+
+    private void compilerParse(Blackhole blackhole, Compiler.Strategy strategy) throws ParseException {
+        for ( String expression : astCorpus ) {
+            Compiler compiler = new Compiler(LOCATION, expression);
+            compiler.setStrategy(strategy);
+            blackhole.consume(compiler.parse());
+        }
+    }
+
+    private static CelParser newParser(String expression) {
+        CelLexer lexer = new CelLexer(new ANTLRInputStream(expression));
+        lexer.removeErrorListeners();
+        CelParser parser = new CelParser(new CommonTokenStream(lexer));
+        parser.removeErrorListeners();
+        return parser;
+    }
+
+    static List<String> loadCorpus(String name) throws IOException {
+        InputStream input = CelFrontEndBenchmark.class.getResourceAsStream(name);
+        if ( input == null ) {
+            throw new IOException("Corpus not found: " + name);
+        }
+        List<String> corpus = new ArrayList<>();
+        try ( BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)) ) {
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                line = line.trim();
+                if ( !line.isEmpty() && !line.startsWith("//") ) {
+                    corpus.add(line);
+                }
+            }
+        }
+        return corpus;
+    }
+
+}
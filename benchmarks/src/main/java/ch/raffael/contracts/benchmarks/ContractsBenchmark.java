@@ -0,0 +1,231 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.internal.ContractSite;
+import ch.raffael.contracts.internal.ContractsContext;
+import ch.raffael.contracts.internal.Regex;
+
+
+/**
+ * The runtime overhead of the different kinds of contracts. The methods are
+ * instrumented by hand the way the agent will instrument them, see the comments for the
+ * contracts they implement. All contracts hold, so we measure the cost of checking them,
+ * not of violations.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ContractsBenchmark {
+
+    static final ContractsContext ENABLED_CONTEXT = ContractsContext.getContext(ContractsBenchmark.class.getName() + ".enabled");
+    static final ContractsContext DISABLED_CONTEXT = ContractsContext.getContext(ContractsBenchmark.class.getName() + ".disabled");
+    static {
+        ENABLED_CONTEXT.enable();
+        DISABLED_CONTEXT.disable();
+    }
+    static final MethodHandle ENABLED = ENABLED_CONTEXT.enabledInvoker();
+    static final MethodHandle DISABLED = DISABLED_CONTEXT.enabledInvoker();
+
+    private static final ContractSite PRE_SITE = ENABLED_CONTEXT.getSite("deposit:pre:0");
+    private static final Regex ACCOUNT_REGEX = new Regex(Pattern.compile("[A-Z]{2}[0-9]{2}-[0-9]{4}"));
+
+    private final Lock lock = new ReentrantLock();
+    private long balance = 0;
+    private int amount = 42;
+    private String account = "CH42-1234";
+
+    @Benchmark
+    public long baseline() {
+        return deposit(amount);
+    }
+
+    /**
+     * `@Require("amount > 0") @Ensure("balance == @old(balance) + amount")`, disabled.
+     */
+    @Benchmark
+    public long disabled() throws Throwable {
+        int amount = this.amount;
+        long oldBalance = 0;
+        boolean enabled = (boolean)DISABLED.invokeExact();
+        if ( enabled ) {
+            if ( !(amount > 0) ) {
+                DISABLED_CONTEXT.violation(new ContractViolationError());
+            }
+            oldBalance = balance;
+        }
+        long result = deposit(amount);
+        if ( enabled ) {
+            if ( !(balance == oldBalance + amount) ) {
+                DISABLED_CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * `@Require("amount > 0")`
+     */
+    @Benchmark
+    public long precondition() throws Throwable {
+        int amount = this.amount;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            if ( !(amount > 0) ) {
+                ENABLED_CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return deposit(amount);
+    }
+
+    /**
+     * `@Require("amount > 0")`, measured by a {@link ContractSite}.
+     */
+    @Benchmark
+    public long measuredPrecondition() throws Throwable {
+        int amount = this.amount;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            long start = PRE_SITE.enter();
+            if ( start != ContractSite.SKIP ) {
+                try {
+                    if ( !(amount > 0) ) {
+                        ENABLED_CONTEXT.violation(new ContractViolationError());
+                    }
+                }
+                finally {
+                    PRE_SITE.exit(start);
+                }
+            }
+        }
+        return deposit(amount);
+    }
+
+    /**
+     * `@Ensure("@result >= 0")`
+     */
+    @Benchmark
+    public long postcondition() throws Throwable {
+        long result = deposit(amount);
+        if ( (boolean)ENABLED.invokeExact() ) {
+            if ( !(result >= 0) ) {
+                ENABLED_CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * `@Ensure("balance == @old(balance) + amount")`
+     */
+    @Benchmark
+    public long old() throws Throwable {
+        int amount = this.amount;
+        boolean enabled = (boolean)ENABLED.invokeExact();
+        long oldBalance = 0;
+        if ( enabled ) {
+            oldBalance = balance;
+        }
+        long result = deposit(amount);
+        if ( enabled ) {
+            if ( !(balance == oldBalance + amount) ) {
+                ENABLED_CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public boolean regexBaseline() {
+        return account.length() == 9;
+    }
+
+    /**
+     * `@Require("@regex(account, '[A-Z]{2}[0-9]{2}-[0-9]{4}')")`
+     */
+    @Benchmark
+    public boolean regex() throws Throwable {
+        String account = this.account;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            if ( !ACCOUNT_REGEX.matches(account) ) {
+                ENABLED_CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return account.length() == 9;
+    }
+
+    /**
+     * `@Synchronized @Require("amount > 0")`
+     */
+    @Benchmark
+    public long synchronizedMethod() throws Throwable {
+        synchronized ( this ) {
+            int amount = this.amount;
+            if ( (boolean)ENABLED.invokeExact() ) {
+                if ( !(amount > 0) ) {
+                    ENABLED_CONTEXT.violation(new ContractViolationError());
+                }
+            }
+            return deposit(amount);
+        }
+    }
+
+    /**
+     * `@Locked("lock") @Require("amount > 0")`
+     */
+    @Benchmark
+    public long lockedMethod() throws Throwable {
+        lock.lock();
+        try {
+            int amount = this.amount;
+            if ( (boolean)ENABLED.invokeExact() ) {
+                if ( !(amount > 0) ) {
+                    ENABLED_CONTEXT.violation(new ContractViolationError());
+                }
+            }
+            return deposit(amount);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private long deposit(int amount) {
+        balance += amount;
+        return balance;
+    }
+
+}
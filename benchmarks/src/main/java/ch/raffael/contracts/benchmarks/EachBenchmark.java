@@ -0,0 +1,120 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.contracts.ContractViolationError;
+
+import static ch.raffael.contracts.benchmarks.ContractsBenchmark.ENABLED;
+import static ch.raffael.contracts.benchmarks.ContractsBenchmark.ENABLED_CONTEXT;
+
+
+/**
+ * The cost of `@each` over arrays and lists of different sizes, compared to the
+ * uninstrumented method.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EachBenchmark {
+
+    @Param({ "16", "1024" })
+    private int size;
+
+    private String[] array;
+    private List<String> list;
+
+    @Setup
+    public void setup() {
+        array = new String[size];
+        for ( int i = 0; i < size; i++ ) {
+            array[i] = "element-" + i;
+        }
+        list = new ArrayList<>(Arrays.asList(array));
+    }
+
+    @Benchmark
+    public int arrayBaseline() {
+        return first(array);
+    }
+
+    /**
+     * `@Require("@each(array, x -> x != null)")`
+     */
+    @Benchmark
+    public int array() throws Throwable {
+        String[] array = this.array;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            for ( String x : array ) {
+                if ( !(x != null) ) {
+                    ENABLED_CONTEXT.violation(new ContractViolationError());
+                }
+            }
+        }
+        return first(array);
+    }
+
+    @Benchmark
+    public int listBaseline() {
+        return first(list);
+    }
+
+    /**
+     * `@Require("@each(list, x -> x != null)")`
+     */
+    @Benchmark
+    public int list() throws Throwable {
+        List<String> list = this.list;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            for ( String x : list ) {
+                if ( !(x != null) ) {
+                    ENABLED_CONTEXT.violation(new ContractViolationError());
+                }
+            }
+        }
+        return first(list);
+    }
+
+    private static int first(String[] array) {
+        return array.length == 0 ? 0 : array[0].length();
+    }
+
+    private static int first(List<String> list) {
+        return list.isEmpty() ? 0 : list.get(0).length();
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.contracts.ContractViolationError;
+import ch.raffael.contracts.internal.ContractsContext;
+
+
+/**
+ * Compares the cost of a disabled contract with uninstrumented code. The instrumented
+ * methods are written by hand the way the agent will instrument them: The enabled check
+ * is done through the context's call site, which the JIT compiler should fold, so
+ * `baseline` and `disabledContract` are expected to be identical. `volatileCheck` shows
+ * the cost of {@link ContractsContext#isEnabled()} for comparison.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EnablementBenchmark {
+
+    private static final ContractsContext CONTEXT = ContractsContext.getContext(EnablementBenchmark.class);
+    private static final MethodHandle ENABLED = CONTEXT.enabledInvoker();
+
+    private int value = 42;
+
+    @Benchmark
+    public int baseline() {
+        return compute(value);
+    }
+
+    @Benchmark
+    public int disabledContract() throws Throwable {
+        int v = value;
+        if ( (boolean)ENABLED.invokeExact() ) {
+            if ( v < 0 ) {
+                CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return compute(v);
+    }
+
+    @Benchmark
+    public int volatileCheck() {
+        int v = value;
+        if ( CONTEXT.isEnabled() ) {
+            if ( v < 0 ) {
+                CONTEXT.violation(new ContractViolationError());
+            }
+        }
+        return compute(v);
+    }
+
+    private static int compute(int v) {
+        return v * 31 + 7;
+    }
+
+}
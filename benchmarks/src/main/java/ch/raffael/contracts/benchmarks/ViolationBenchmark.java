@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.raffael.contracts.ContractViolationError;
+
+
+/**
+ * The cost of creating a violation `depth` frames down the stack. Capturing the stack
+ * trace walks the whole stack, so `fullStackTrace` is expected to grow with the depth,
+ * while `noStackTrace` and `preallocated` shouldn't depend on it.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ViolationBenchmark {
+
+    private static final ContractViolationError PREALLOCATED = ContractViolationError.preallocated("test", null);
+
+    @Param({ "10", "100", "500" })
+    public int depth;
+
+    @Benchmark
+    public ContractViolationError fullStackTrace() {
+        return create(depth, true, false);
+    }
+
+    @Benchmark
+    public ContractViolationError noStackTrace() {
+        return create(depth, false, false);
+    }
+
+    @Benchmark
+    public ContractViolationError preallocated() {
+        return create(depth, false, true);
+    }
+
+    private static ContractViolationError create(int depth, boolean captureStackTrace, boolean preallocated) {
+        if ( depth > 0 ) {
+            return create(depth - 1, captureStackTrace, preallocated);
+        }
+        return preallocated ? PREALLOCATED : new ContractViolationError("test", null, captureStackTrace);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import com.google.common.io.ByteStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+
+/**
+ * The cost of generating skeletons, measured on the classes of a JDK runtime image.
+ * This benchmark lives in the skeletons package because skeleton generation isn't part
+ * of the public API.
+ *
+ * The classes are read from `lib/rt.jar` or `jre/lib/rt.jar` of `jdkHome` (the running
+ * JVM by default). If there's no `rt.jar`, the module `java.base` is read from the
+ * `jrt:/` file system of the running JVM. Only classes starting with `prefix` are used;
+ * classes the processor's ASM can't read (newer class file versions) are skipped.
+ *
+ * The skeletons are only generated, not defined: The runtime image doesn't need to match
+ * the running JVM (ASM 5 can't read the class files of newer JDKs), so the supertypes
+ * may be missing.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class SkeletonGenerationBenchmark {
+
+    @Param("")
+    public String jdkHome;
+
+    @Param("")
+    public String prefix;
+
+    private final List<String> classNames = new ArrayList<>();
+    private final List<byte[]> classFiles = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        Path home = Paths.get(jdkHome.isEmpty() ? System.getProperty("java.home") : jdkHome);
+        Path rtJar = home.resolve("lib/rt.jar");
+        if ( !Files.isRegularFile(rtJar) ) {
+            rtJar = home.resolve("jre/lib/rt.jar");
+        }
+        if ( Files.isRegularFile(rtJar) ) {
+            try ( ZipFile zip = new ZipFile(rtJar.toFile()) ) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while ( entries.hasMoreElements() ) {
+                    ZipEntry entry = entries.nextElement();
+                    try ( InputStream input = zip.getInputStream(entry) ) {
+                        addClass(entry.getName(), input);
+                    }
+                }
+            }
+        }
+        else if ( jdkHome.isEmpty() ) {
+            Path modules = FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules/java.base");
+            try ( Stream<Path> files = Files.walk(modules) ) {
+                for ( Path file : (Iterable<Path>)files::iterator ) {
+                    if ( Files.isRegularFile(file) ) {
+                        try ( InputStream input = Files.newInputStream(file) ) {
+                            addClass(modules.relativize(file).toString(), input);
+                        }
+                    }
+                }
+            }
+        }
+        else {
+            throw new IOException("No rt.jar found in " + home);
+        }
+        if ( classFiles.isEmpty() ) {
+            throw new IOException("No classes found in " + home);
+        }
+    }
+
+    private void addClass(String fileName, InputStream input) throws IOException {
+        if ( !fileName.endsWith(".class") || !fileName.startsWith(prefix) || fileName.endsWith("module-info.class") ) {
+            return;
+        }
+        String className = fileName.substring(0, fileName.length() - ".class".length()).replace('/', '.');
+        byte[] classFile = ByteStreams.toByteArray(input);
+        try {
+            SkeletonClassLoader.generate(className, classFile);
+        }
+        catch ( RuntimeException e ) {
+            return;
+        }
+        classNames.add(className);
+        classFiles.add(classFile);
+    }
+
+    @Benchmark
+    public void generate(Blackhole blackhole) {
+        for ( int i = 0; i < classFiles.size(); i++ ) {
+            blackhole.consume(SkeletonClassLoader.generate(classNames.get(i), classFiles.get(i)));
+        }
+    }
+
+}
@@ -15,21 +15,214 @@
  */
 package ch.raffael.contracts.processor.maven;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 
+import ch.raffael.contracts.processor.ProcessorDriver;
+import ch.raffael.contracts.processor.cel.ClauseCache;
+import ch.raffael.contracts.processor.cel.skeletons.ClassPathClassFileLoader;
+import ch.raffael.contracts.processor.cel.skeletons.SharedSkeletonPools;
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonCache;
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonPool;
+
 
 /**
+ * Runs the contracts processor on the compiled classes.
+ *
+ * Processing is incremental: A build index in the build directory records the state of
+ * the previous build, only classes whose class files or inherited contracts changed will
+ * be processed again (see {@link ch.raffael.contracts.processor.BuildIndex}).
+ *
+ * The mojo is thread-safe. If Maven builds several modules in parallel (`-T`), the
+ * available processors are divided among them by default.
+ *
+ * The skeletons of the dependency jars are shared by all modules of the build using the
+ * same jars, so they're only generated once per build.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  *
  * @goal process
+ * @phase process-classes
+ * @requiresDependencyResolution compile
+ * @threadSafe
  */
 public class ContractsProcessorMojo extends AbstractMojo {
 
+    /**
+     * The directory containing the classes to be processed.
+     *
+     * @parameter default-value="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesDirectory;
+
+    /**
+     * The classpath used to load the skeletons of the processed classes.
+     *
+     * @parameter default-value="${project.compileClasspathElements}"
+     * @required
+     * @readonly
+     */
+    private List<String> classpathElements;
+
+    /**
+     * The file to store the build index in.
+     *
+     * @parameter default-value="${project.build.directory}/contracts/build-index.dat"
+     * @required
+     */
+    private File indexFile;
+
+    /**
+     * The directory of the persistent skeleton cache. It may be shared by any number of
+     * builds.
+     *
+     * Entries are never evicted, the cache keeps growing with every new version of a
+     * dependency. It's safe to delete the directory at any time, e.g. using
+     * `rm -rf ~/.contracts/skeleton-cache`, the skeletons will be generated again.
+     *
+     * @parameter expression="${contracts.skeletonCache}" default-value="${user.home}/.contracts/skeleton-cache"
+     */
+    private File skeletonCache;
+
+    /**
+     * Use the persistent skeleton cache. It's off by default, as it writes outside of the
+     * project and is never cleaned up (see {@link #skeletonCache}).
+     *
+     * @parameter expression="${contracts.useSkeletonCache}" default-value="false"
+     */
+    private boolean useSkeletonCache;
+
+    /**
+     * Share the skeletons of the dependency jars with other modules using the same jars
+     * in the same build (see
+     * {@link ch.raffael.contracts.processor.cel.skeletons.SharedSkeletonPools}).
+     *
+     * @parameter expression="${contracts.shareSkeletons}" default-value="true"
+     */
+    private boolean shareSkeletons;
+
+    /**
+     * Process all classes, even if they didn't change since the last build.
+     *
+     * @parameter expression="${contracts.force}" default-value="false"
+     */
+    private boolean force;
+
+    /**
+     * Skip processing.
+     *
+     * @parameter expression="${contracts.skip}" default-value="false"
+     */
+    private boolean skip;
+
+    /**
+     * The number of threads to use. If 0, the number of available processors divided by
+     * the number of modules Maven builds in parallel.
+     *
+     * @parameter expression="${contracts.threads}" default-value="0"
+     */
+    private int threads;
+
+    /**
+     * @parameter default-value="${session.request.degreeOfConcurrency}"
+     * @readonly
+     */
+    private Integer degreeOfConcurrency;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        // FIXME: Not implemented
+        if ( skip ) {
+            getLog().info("Skipping contracts processing");
+            return;
+        }
+        if ( !classesDirectory.isDirectory() ) {
+            getLog().info("No classes to process");
+            return;
+        }
+        SkeletonCache cache = useSkeletonCache ? new SkeletonCache(skeletonCache.toPath()) : null;
+        try ( SharedSkeletonPools.Lease shared = shareSkeletons ? SharedSkeletonPools.acquire(classpath(false), cache) : null ) {
+            SkeletonPool skeletons;
+            if ( shared != null ) {
+                getLog().debug((shared.isReused() ? "Reusing" : "Created") + " shared skeleton pool: " + shared);
+                skeletons = new SkeletonPool(shared.getPool(), new ClassPathClassFileLoader(classpath(true)), cache);
+            }
+            else {
+                skeletons = new SkeletonPool(new ClassPathClassFileLoader(classpath()), cache);
+            }
+            ProcessorDriver driver = new ProcessorDriver(classesDirectory.toPath(), skeletons, new ClauseCache());
+            driver.setParallelism(parallelism());
+            driver.setLog(new MavenLog(getLog()));
+            if ( force ) {
+                Files.deleteIfExists(indexFile.toPath());
+            }
+            driver.setIndexFile(indexFile.toPath());
+            long start = System.nanoTime();
+            List<ProcessorDriver.Result> results = driver.run();
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Map<ProcessorDriver.Result.Status, Integer> counts = new EnumMap<>(ProcessorDriver.Result.Status.class);
+            for ( ProcessorDriver.Result.Status status : ProcessorDriver.Result.Status.values() ) {
+                counts.put(status, 0);
+            }
+            for ( ProcessorDriver.Result result : results ) {
+                counts.put(result.getStatus(), counts.get(result.getStatus()) + 1);
+            }
+            getLog().info(String.format("Processed %d classes in %dms using %d thread(s): %d checked, %d without contracts, %d up to date, %d failed",
+                                        results.size(), elapsed, driver.getParallelism(),
+                                        counts.get(ProcessorDriver.Result.Status.CHECKED),
+                                        counts.get(ProcessorDriver.Result.Status.SKIPPED),
+                                        counts.get(ProcessorDriver.Result.Status.UP_TO_DATE),
+                                        counts.get(ProcessorDriver.Result.Status.FAILED)));
+            getLog().info("Time per phase (all threads): " + driver.getTimings());
+            if ( !ProcessorDriver.report(results, new MavenLog(getLog())) ) {
+                throw new MojoFailureException("Contracts processing failed, see errors above");
+            }
+        }
+        catch ( IOException e ) {
+            throw new MojoExecutionException("I/O error processing contracts: " + e, e);
+        }
+    }
 
+    private List<Path> classpath() {
+        List<Path> elements = new ArrayList<>(classpathElements.size());
+        for ( String element : classpathElements ) {
+            elements.add(Paths.get(element));
+        }
+        return elements;
     }
+
+    /**
+     * The directories or the jar files of the classpath.
+     */
+    private List<Path> classpath(boolean directories) {
+        List<Path> elements = new ArrayList<>(classpathElements.size());
+        for ( String element : classpathElements ) {
+            Path path = Paths.get(element);
+            if ( Files.isDirectory(path) == directories ) {
+                elements.add(path);
+            }
+        }
+        return elements;
+    }
+
+    private int parallelism() {
+        if ( threads > 0 ) {
+            return threads;
+        }
+        int modules = degreeOfConcurrency == null ? 1 : Math.max(1, degreeOfConcurrency);
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / modules);
+    }
+
 }
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.maven;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.processor.Log;
+
+
+/**
+ * Adapts a Maven log to the processor's {@link Log}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+final class MavenLog implements Log {
+
+    private final org.apache.maven.plugin.logging.Log log;
+    private final String resource;
+
+    MavenLog(@NotNull org.apache.maven.plugin.logging.Log log) {
+        this(log, null);
+    }
+
+    private MavenLog(@NotNull org.apache.maven.plugin.logging.Log log, @Nullable String resource) {
+        this.log = log;
+        this.resource = resource;
+    }
+
+    @Override
+    public void error(int line, String message, String... args) {
+        log.error(format(line, message, args));
+    }
+
+    @Override
+    public void warn(int line, String message, String... args) {
+        log.warn(format(line, message, args));
+    }
+
+    @Override
+    public void info(int line, String message, String... args) {
+        log.info(format(line, message, args));
+    }
+
+    @Override
+    public void debug(int line, String message, String... args) {
+        if ( log.isDebugEnabled() ) {
+            log.debug(format(line, message, args));
+        }
+    }
+
+    @Override
+    public void error(String message, String... args) {
+        error(-1, message, args);
+    }
+
+    @Override
+    public void warn(String message, String... args) {
+        warn(-1, message, args);
+    }
+
+    @Override
+    public void info(String message, String... args) {
+        info(-1, message, args);
+    }
+
+    @Override
+    public void debug(String message, String... args) {
+        debug(-1, message, args);
+    }
+
+    @Override
+    public Log forResource(String resource) {
+        return new MavenLog(log, resource);
+    }
+
+    private String format(int line, String message, String... args) {
+        StringBuilder buf = new StringBuilder();
+        if ( resource != null ) {
+            buf.append(resource);
+            if ( line > 0 ) {
+                buf.append(':').append(line);
+            }
+            buf.append(": ");
+        }
+        if ( args.length == 0 ) {
+            buf.append(message);
+        }
+        else {
+            buf.append(String.format(message, (Object[])args));
+        }
+        return buf.toString();
+    }
+
+}
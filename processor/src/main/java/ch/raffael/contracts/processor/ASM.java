@@ -23,7 +23,7 @@ import org.objectweb.asm.Opcodes;
  */
 public final class ASM {
 
-    public static final int API = Opcodes.ASM4;
+    public static final int API = Opcodes.ASM5;
 
     private ASM() {
     }
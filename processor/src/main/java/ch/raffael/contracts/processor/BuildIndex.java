@@ -0,0 +1,365 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.processor.util.Digester;
+
+
+/**
+ * Persistent state of the previous processor run on a classes directory, used to only
+ * process the classes that changed since then.
+ *
+ * For each class, the index records the modification time, size and hash of the class
+ * file, the hash of the contracts it declares, its direct supertypes and the hash of all inputs of the last
+ * successful processing. As contracts are inherited (preconditions are OR-ed,
+ * postconditions and invariants AND-ed), the inputs of a class are its class file *and*
+ * the contracts of all its supertypes, transitively. See {@link #inputHash(String,
+ * byte[])}.
+ *
+ * Supertypes outside of the classes directory (i.e. on the classpath) are only tracked by
+ * name. Changes to their contracts require a full rebuild.
+ *
+ * The index is stored in a single file, it's written to a temporary file first and then
+ * moved into place, so an interrupted build will leave the previous index intact. An
+ * index written by a different version of the processor is ignored.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class BuildIndex {
+
+    private static final int MAGIC = 0x43544958; // CTIX
+    private static final int FORMAT_VERSION = 4;
+
+    private final String processorVersion;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public BuildIndex() {
+        this(ContractsProcessor.getVersion());
+    }
+
+    BuildIndex(@NotNull String processorVersion) {
+        this.processorVersion = processorVersion;
+    }
+
+    /**
+     * Load the index from the given file.
+     *
+     * @return The index or an empty index, if the file doesn't exist, has been written
+     * by another version of the processor or cannot be read (e.g. truncated by an
+     * interrupted build). An empty index means that all classes will be processed.
+     *
+     * @param log  The log to warn about unreadable files, `null` to ignore them
+     *             silently.
+     */
+    @NotNull
+    public static BuildIndex load(@NotNull Path file, @Nullable Log log) {
+        BuildIndex index = new BuildIndex();
+        try ( DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))) ) {
+            if ( input.readInt() != MAGIC ) {
+                throw new IOException(file + ": Not a contracts build index");
+            }
+            if ( input.readInt() != FORMAT_VERSION || !input.readUTF().equals(index.processorVersion) ) {
+                return index;
+            }
+            int count = input.readInt();
+            for ( int i = 0; i < count; i++ ) {
+                String className = input.readUTF();
+                long lastModified = input.readLong();
+                long size = input.readLong();
+                byte[] classHash = readBytes(input);
+                byte[] contractsHash = readBytes(input);
+                int supertypeCount = input.readInt();
+                List<String> supertypes = new ArrayList<>(supertypeCount);
+                for ( int j = 0; j < supertypeCount; j++ ) {
+                    supertypes.add(input.readUTF());
+                }
+                byte[] inputHash = readBytes(input);
+                index.put(new Entry(className, lastModified, size, classHash, contractsHash, supertypes, inputHash));
+            }
+        }
+        catch ( NoSuchFileException e ) {
+            // no previous build
+        }
+        catch ( IOException | IllegalArgumentException e ) {
+            if ( log != null ) {
+                log.warn("Ignoring unreadable build index %s: %s", file.toString(), e.toString());
+            }
+            return new BuildIndex();
+        }
+        return index;
+    }
+
+    /**
+     * Save the index to the given file.
+     */
+    public void save(@NotNull Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        if ( file.getParent() != null ) {
+            Files.createDirectories(file.getParent());
+        }
+        try ( DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))) ) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(processorVersion);
+            // sorted, so the same state results in the same file
+            Collection<Entry> sorted = new TreeMap<>(entries).values();
+            output.writeInt(sorted.size());
+            for ( Entry entry : sorted ) {
+                output.writeUTF(entry.className);
+                output.writeLong(entry.lastModified);
+                output.writeLong(entry.size);
+                writeBytes(output, entry.classHash);
+                writeBytes(output, entry.contractsHash);
+                output.writeInt(entry.supertypes.size());
+                for ( String supertype : entry.supertypes ) {
+                    output.writeUTF(supertype);
+                }
+                writeBytes(output, entry.inputHash);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Nullable
+    public Entry get(@NotNull String className) {
+        return entries.get(className);
+    }
+
+    public void put(@NotNull Entry entry) {
+        entries.put(entry.className, entry);
+    }
+
+    public void remove(@NotNull String className) {
+        entries.remove(className);
+    }
+
+    @NotNull
+    public Set<String> classNames() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Compute the hash of a class file.
+     */
+    @NotNull
+    public static byte[] classHash(@NotNull byte[] classFile) {
+        Digester digester = new Digester();
+        digester.write(classFile);
+        return digester.digest();
+    }
+
+    /**
+     * Compute the hash of the contracts declared by a class.
+     */
+    @NotNull
+    public static byte[] contractsHash(@NotNull ClassContracts contracts) {
+        Digester digester = new Digester();
+        for ( ClassContracts.Declaration declaration : contracts.getDeclarations() ) {
+            digester.writeInt(declaration.getTarget().ordinal());
+            writeNullableUTF(digester, declaration.getName());
+            writeNullableUTF(digester, declaration.getDescriptor());
+            digester.writeInt(declaration.getParameter());
+            digester.writeUTF(declaration.getExpression());
+        }
+        return digester.digest();
+    }
+
+    /**
+     * Compute the hash of all inputs of a class: Its class file and the contracts of all
+     * its supertypes. The supertypes are looked up in the index, so the index must
+     * contain up-to-date entries for all classes of the classes directory.
+     *
+     * @param className The internal name of the class.
+     * @param classHash The hash of the class file.
+     */
+    @NotNull
+    public byte[] inputHash(@NotNull String className, @NotNull byte[] classHash) {
+        Digester digester = new Digester();
+        digester.write(classHash);
+        Entry entry = entries.get(className);
+        if ( entry != null ) {
+            List<String> visited = new ArrayList<>();
+            visited.add(className);
+            for ( String supertype : entry.supertypes ) {
+                digestInheritedContracts(digester, supertype, visited);
+            }
+        }
+        return digester.digest();
+    }
+
+    private void digestInheritedContracts(Digester digester, String className, List<String> visited) {
+        if ( visited.contains(className) ) {
+            return;
+        }
+        visited.add(className);
+        digester.writeUTF(className);
+        Entry entry = entries.get(className);
+        if ( entry == null ) {
+            // outside of the classes directory
+            digester.writeBoolean(false);
+        }
+        else {
+            digester.writeBoolean(true);
+            digester.write(entry.contractsHash);
+            for ( String supertype : entry.supertypes ) {
+                digestInheritedContracts(digester, supertype, visited);
+            }
+        }
+    }
+
+    private static void writeNullableUTF(Digester digester, String string) {
+        if ( string == null ) {
+            digester.writeBoolean(false);
+        }
+        else {
+            digester.writeBoolean(true);
+            digester.writeUTF(string);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream output, byte[] bytes) throws IOException {
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * The state of a single class.
+     */
+    public static final class Entry {
+
+        private final String className;
+        private final long lastModified;
+        private final long size;
+        private final byte[] classHash;
+        private final byte[] contractsHash;
+        private final List<String> supertypes;
+        private final byte[] inputHash;
+
+        public Entry(@NotNull String className, long lastModified, long size, @NotNull byte[] classHash, @NotNull byte[] contractsHash, @NotNull List<String> supertypes, @NotNull byte[] inputHash) {
+            this.className = className;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.classHash = classHash;
+            this.contractsHash = contractsHash;
+            this.supertypes = ImmutableList.copyOf(supertypes);
+            this.inputHash = inputHash;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("className", className)
+                    .add("supertypes", supertypes)
+                    .toString();
+        }
+
+        /**
+         * Create a copy of this entry with the given input hash.
+         */
+        @NotNull
+        public Entry processed(@NotNull byte[] inputHash) {
+            return new Entry(className, lastModified, size, classHash, contractsHash, supertypes, inputHash);
+        }
+
+        /**
+         * Create a copy of this entry with the given modification time and size, for
+         * class files that have been touched without changing their contents.
+         */
+        @NotNull
+        public Entry touched(long lastModified, long size) {
+            return new Entry(className, lastModified, size, classHash, contractsHash, supertypes, inputHash);
+        }
+
+        @NotNull
+        public String getClassName() {
+            return className;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * `true`, if the class file has the given modification time and size. It's then
+         * assumed to be unchanged, without looking at its contents.
+         */
+        public boolean hasTimestamp(long lastModified, long size) {
+            return this.lastModified == lastModified && this.size == size;
+        }
+
+        @NotNull
+        public byte[] getClassHash() {
+            return classHash.clone();
+        }
+
+        public boolean hasClassHash(@NotNull byte[] classHash) {
+            return Arrays.equals(this.classHash, classHash);
+        }
+
+        @NotNull
+        public byte[] getContractsHash() {
+            return contractsHash.clone();
+        }
+
+        @NotNull
+        public List<String> getSupertypes() {
+            return supertypes;
+        }
+
+        public boolean hasInputHash(@NotNull byte[] inputHash) {
+            return Arrays.equals(this.inputHash, inputHash);
+        }
+    }
+
+}
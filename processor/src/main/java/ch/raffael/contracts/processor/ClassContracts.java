@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor;
+
+import java.util.List;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+
+
+/**
+ * The contracts declared in a class file, as read by {@link ContractsReader}.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class ClassContracts {
+
+    private final String className;
+    private final String superName;
+    private final List<String> interfaces;
+    private final String sourceFile;
+    private final List<Declaration> declarations;
+
+    ClassContracts(@NotNull String className, @Nullable String superName, @NotNull List<String> interfaces, @Nullable String sourceFile, @NotNull List<Declaration> declarations) {
+        this.className = className;
+        this.superName = superName;
+        this.interfaces = ImmutableList.copyOf(interfaces);
+        this.sourceFile = sourceFile;
+        this.declarations = ImmutableList.copyOf(declarations);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("className", className)
+                .add("declarations", declarations)
+                .toString();
+    }
+
+    /**
+     * The internal name of the class.
+     */
+    @NotNull
+    public String getClassName() {
+        return className;
+    }
+
+    /**
+     * The internal name of the super class, `null` for `java.lang.Object`.
+     */
+    @Nullable
+    public String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * The internal names of the directly implemented interfaces.
+     */
+    @NotNull
+    public List<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * The name of the source file as found in the debug information, `null` if there's
+     * no debug information.
+     */
+    @Nullable
+    public String getSourceFile() {
+        return sourceFile;
+    }
+
+    @NotNull
+    public List<Declaration> getDeclarations() {
+        return declarations;
+    }
+
+    public boolean isEmpty() {
+        return declarations.isEmpty();
+    }
+
+    /**
+     * A single `@Contract` annotation.
+     */
+    public static final class Declaration {
+
+        private final Target target;
+        private final String name;
+        private final String descriptor;
+        private final int parameter;
+        private final String expression;
+
+        Declaration(@NotNull Target target, @Nullable String name, @Nullable String descriptor, int parameter, @NotNull String expression) {
+            this.target = target;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.parameter = parameter;
+            this.expression = expression;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("target", target)
+                    .add("name", name)
+                    .add("descriptor", descriptor)
+                    .add("parameter", parameter)
+                    .add("expression", expression)
+                    .toString();
+        }
+
+        @NotNull
+        public Target getTarget() {
+            return target;
+        }
+
+        /**
+         * The name of the annotated method or field, `null` for class contracts.
+         */
+        @Nullable
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The descriptor of the annotated method or field, `null` for class contracts.
+         */
+        @Nullable
+        public String getDescriptor() {
+            return descriptor;
+        }
+
+        /**
+         * The index of the annotated parameter, -1 if it's not a parameter contract.
+         */
+        public int getParameter() {
+            return parameter;
+        }
+
+        @NotNull
+        public String getExpression() {
+            return expression;
+        }
+
+    }
+
+    public static enum Target {
+        CLASS, METHOD, PARAMETER, FIELD
+    }
+
+}
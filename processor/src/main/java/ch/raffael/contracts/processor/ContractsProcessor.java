@@ -46,6 +46,15 @@ public final class ContractsProcessor {
     private ContractsProcessor() {
     }
 
+    /**
+     * The version of the processor, as given in the manifest, "dev" if not available.
+     */
+    @NotNull
+    public static String getVersion() {
+        String version = ContractsProcessor.class.getPackage().getImplementationVersion();
+        return version == null ? "dev" : version;
+    }
+
     @NotNull
     public static String toInternalName(@NotNull String binaryName) {
         return binaryName.replace('.', '/');
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import ch.raffael.contracts.Contract;
+import ch.raffael.contracts.NotNull;
+
+
+/**
+ * Reads the `@Contract` annotations of a class file. Method bodies are skipped, so this
+ * is cheap enough to be run on every class file.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public class ContractsReader {
+
+    private static final String CONTRACT_DESC = Type.getDescriptor(Contract.class);
+    private static final String CONTRACT_LIST_DESC = Type.getDescriptor(Contract.List.class);
+
+    private final List<ClassContracts.Declaration> declarations = new ArrayList<>();
+    private String className;
+    private String superName;
+    private List<String> interfaces = Collections.emptyList();
+    private String sourceFile;
+
+    @NotNull
+    public ClassContracts read(@NotNull ClassReader reader) {
+        declarations.clear();
+        sourceFile = null;
+        reader.accept(new RootVisitor(), ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES);
+        return new ClassContracts(className, superName, interfaces, sourceFile, declarations);
+    }
+
+    private AnnotationVisitor visitAnnotation(String desc, ClassContracts.Target target, String name, String descriptor, int parameter) {
+        if ( desc.equals(CONTRACT_DESC) ) {
+            return new ContractVisitor(target, name, descriptor, parameter);
+        }
+        else if ( desc.equals(CONTRACT_LIST_DESC) ) {
+            return new ContractListVisitor(target, name, descriptor, parameter);
+        }
+        else {
+            return null;
+        }
+    }
+
+    private class RootVisitor extends ClassVisitor {
+
+        private RootVisitor() {
+            super(ASM.API);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            className = name;
+            ContractsReader.this.superName = superName;
+            ContractsReader.this.interfaces = interfaces == null ? Collections.<String>emptyList() : Arrays.asList(interfaces);
+        }
+
+        @Override
+        public void visitSource(String source, String debug) {
+            sourceFile = source;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+            return ContractsReader.this.visitAnnotation(desc, ClassContracts.Target.CLASS, null, null, -1);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, final String name, final String desc, String signature, Object value) {
+            return new FieldVisitor(ASM.API) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible) {
+                    return ContractsReader.this.visitAnnotation(annotationDesc, ClassContracts.Target.FIELD, name, desc, -1);
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, final String name, final String desc, String signature, String[] exceptions) {
+            return new MethodVisitor(ASM.API) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String annotationDesc, boolean visible) {
+                    return ContractsReader.this.visitAnnotation(annotationDesc, ClassContracts.Target.METHOD, name, desc, -1);
+                }
+                @Override
+                public AnnotationVisitor visitParameterAnnotation(int parameter, String annotationDesc, boolean visible) {
+                    return ContractsReader.this.visitAnnotation(annotationDesc, ClassContracts.Target.PARAMETER, name, desc, parameter);
+                }
+            };
+        }
+    }
+
+    private class ContractVisitor extends AnnotationVisitor {
+        private final ClassContracts.Target target;
+        private final String name;
+        private final String descriptor;
+        private final int parameter;
+        private ContractVisitor(ClassContracts.Target target, String name, String descriptor, int parameter) {
+            super(ASM.API);
+            this.target = target;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.parameter = parameter;
+        }
+        @Override
+        public void visit(String attribute, Object value) {
+            if ( "value".equals(attribute) ) {
+                declarations.add(new ClassContracts.Declaration(target, name, descriptor, parameter, (String)value));
+            }
+        }
+    }
+
+    private class ContractListVisitor extends AnnotationVisitor {
+        private final ClassContracts.Target target;
+        private final String name;
+        private final String descriptor;
+        private final int parameter;
+        private ContractListVisitor(ClassContracts.Target target, String name, String descriptor, int parameter) {
+            super(ASM.API);
+            this.target = target;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.parameter = parameter;
+        }
+        @Override
+        public AnnotationVisitor visitArray(String attribute) {
+            if ( "value".equals(attribute) ) {
+                return this;
+            }
+            else {
+                return null;
+            }
+        }
+        @Override
+        public AnnotationVisitor visitAnnotation(String attribute, String desc) {
+            if ( desc.equals(CONTRACT_DESC) ) {
+                return new ContractVisitor(target, name, descriptor, parameter);
+            }
+            else {
+                return null;
+            }
+        }
+    }
+
+}
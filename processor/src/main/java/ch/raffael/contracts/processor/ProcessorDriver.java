@@ -0,0 +1,651 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.Method;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.processor.cel.CelError;
+import ch.raffael.contracts.processor.cel.ClauseCache;
+import ch.raffael.contracts.processor.cel.Location;
+import ch.raffael.contracts.processor.cel.ParseException;
+import ch.raffael.contracts.processor.cel.skeletons.Skeleton;
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonPool;
+
+import static com.google.common.base.Preconditions.*;
+
+
+/**
+ * Runs the contracts processor over a directory of compiled classes, checking the
+ * contracts declared by the classes.
+ *
+ * The `$$ch$raffael$contracts` companion classes evaluating the contracts will be written
+ * next to the classes. Generating them isn't implemented yet, so for now, the driver
+ * only parses the contracts and removes companion classes left over from earlier
+ * builds.
+ *
+ * Class files are independent of each other, so each one is processed by its own task in
+ * a fork-join pool (by default sized to the number of available processors). The
+ * {@link SkeletonPool} and {@link ClauseCache} are shared by all tasks, the parsers are
+ * thread-confined (see {@link ch.raffael.contracts.processor.cel.parser.CelParserPool}).
+ * Each task collects its problems in its own {@link Result}, the results are returned in
+ * the order of the class files' paths, so the outcome of a run doesn't depend on the
+ * scheduling of the tasks.
+ *
+ * The {@link SkeletonPool} must be able to load the processed classes, i.e. its
+ * {@link ch.raffael.contracts.processor.cel.skeletons.ClassFileLoader} must include the
+ * classes directory as well as the classpath.
+ *
+ * If an index file is set, the driver processes incrementally: The class files are
+ * compared to the {@link BuildIndex} of the previous run in parallel, only classes whose
+ * class file or inherited contracts changed will be processed again. The companion
+ * classes of deleted classes will be removed.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public class ProcessorDriver {
+
+    private static final String CLASS_EXTENSION = ".class";
+    private static final String CONTRACTS_CLASS_FILE_SUFFIX = ContractsProcessor.CONTRACTS_CLASS_SUFFIX + CLASS_EXTENSION;
+    private static final byte[] NO_HASH = new byte[0];
+
+    private final Path classesDirectory;
+    private final SkeletonPool skeletons;
+    private final ClauseCache clauses;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private Path indexFile = null;
+    private UpToDateCheck upToDateCheck = UpToDateCheck.TIMESTAMP;
+    private Log log = null;
+    private final Timings timings = new Timings();
+
+    public ProcessorDriver(@NotNull Path classesDirectory, @NotNull SkeletonPool skeletons, @NotNull ClauseCache clauses) {
+        this.classesDirectory = classesDirectory;
+        this.skeletons = skeletons;
+        this.clauses = clauses;
+    }
+
+    @NotNull
+    public Path getClassesDirectory() {
+        return classesDirectory;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        checkArgument(parallelism > 0, "Parallelism must be > 0");
+        this.parallelism = parallelism;
+    }
+
+    @Nullable
+    public Path getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * Set the file to store the {@link BuildIndex} in, `null` to always process all
+     * classes.
+     */
+    public void setIndexFile(@Nullable Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    @NotNull
+    public UpToDateCheck getUpToDateCheck() {
+        return upToDateCheck;
+    }
+
+    /**
+     * Set how to detect unchanged class files in incremental processing.
+     */
+    public void setUpToDateCheck(@NotNull UpToDateCheck upToDateCheck) {
+        this.upToDateCheck = checkNotNull(upToDateCheck, "upToDateCheck");
+    }
+
+    @Nullable
+    public Log getLog() {
+        return log;
+    }
+
+    /**
+     * Set the log to report problems of the driver itself to (e.g. an unreadable
+     * {@link BuildIndex}). Problems of the processed classes are reported in the
+     * {@link Result Results}.
+     */
+    public void setLog(@Nullable Log log) {
+        this.log = log;
+    }
+
+    /**
+     * The time spent in the phases of processing, over all runs of this driver.
+     */
+    @NotNull
+    public Timings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Process all class files in the classes directory.
+     *
+     * @return The results, one per class file, in the order of the class files' paths.
+     */
+    @NotNull
+    public List<Result> run() throws IOException {
+        return run(scan());
+    }
+
+    /**
+     * Process the given class files, which must be located in the classes directory.
+     *
+     * @return The results, one per class file, in the given order.
+     */
+    @NotNull
+    public List<Result> run(@NotNull List<Path> classFiles) throws IOException {
+        if ( indexFile == null ) {
+            return processAll(classFiles);
+        }
+        else {
+            return runIncremental(classFiles);
+        }
+    }
+
+    @NotNull
+    private List<Result> processAll(@NotNull List<Path> classFiles) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Result>> tasks = new ArrayList<>(classFiles.size());
+            for ( Path classFile : classFiles ) {
+                tasks.add(pool.submit(() -> process(classFile)));
+            }
+            List<Result> results = new ArrayList<>(tasks.size());
+            for ( ForkJoinTask<Result> task : tasks ) {
+                results.add(task.join());
+            }
+            return results;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @NotNull
+    private List<Result> runIncremental(@NotNull List<Path> classFiles) throws IOException {
+        BuildIndex index = BuildIndex.load(indexFile, log);
+        List<Analysis> analyses = analyze(classFiles, index);
+        Set<String> present = new HashSet<>();
+        for ( Analysis analysis : analyses ) {
+            present.add(analysis.entry.getClassName());
+            if ( analysis.changed ) {
+                index.put(analysis.entry);
+            }
+        }
+        for ( String className : new ArrayList<>(index.classNames()) ) {
+            Path classFile = classesDirectory.resolve(className + CLASS_EXTENSION);
+            if ( !present.contains(className) && !Files.exists(classFile) ) {
+                Files.deleteIfExists(companionFile(classFile));
+                index.remove(className);
+            }
+        }
+        Map<Path, byte[]> stale = new LinkedHashMap<>();
+        for ( Analysis analysis : analyses ) {
+            BuildIndex.Entry entry = index.get(analysis.entry.getClassName());
+            byte[] inputHash = index.inputHash(entry.getClassName(), entry.getClassHash());
+            if ( !entry.hasInputHash(inputHash) ) {
+                stale.put(analysis.classFile, inputHash);
+            }
+        }
+        Map<Path, Result> processed = new HashMap<>();
+        for ( Result result : processAll(new ArrayList<>(stale.keySet())) ) {
+            processed.put(result.getClassFile(), result);
+        }
+        List<Result> results = new ArrayList<>(analyses.size());
+        for ( Analysis analysis : analyses ) {
+            Result result = processed.get(analysis.classFile);
+            if ( result == null ) {
+                results.add(new Result(analysis.classFile, analysis.entry.getClassName(), Result.Status.UP_TO_DATE, Collections.<Problem>emptyList()));
+            }
+            else {
+                BuildIndex.Entry entry = index.get(analysis.entry.getClassName());
+                if ( result.getStatus() == Result.Status.FAILED ) {
+                    // make sure it will be processed again
+                    index.put(entry.processed(NO_HASH));
+                }
+                else {
+                    index.put(entry.processed(stale.get(analysis.classFile)));
+                }
+                results.add(result);
+            }
+        }
+        index.save(indexFile);
+        return results;
+    }
+
+    /**
+     * Compare the given class files to the index. Class files with the same modification
+     * time and size as recorded in the index are assumed to be unchanged (unless checking
+     * {@link UpToDateCheck#CONTENT}), the others are hashed and only read, if the hash
+     * changed.
+     */
+    @NotNull
+    private List<Analysis> analyze(@NotNull List<Path> classFiles, @NotNull BuildIndex index) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<ForkJoinTask<Analysis>> tasks = new ArrayList<>(classFiles.size());
+            for ( Path classFile : classFiles ) {
+                tasks.add(pool.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        return analyze(classFile, index);
+                    }
+                    finally {
+                        timings.record(Phase.SCAN, start);
+                    }
+                }));
+            }
+            List<Analysis> analyses = new ArrayList<>(tasks.size());
+            for ( ForkJoinTask<Analysis> task : tasks ) {
+                try {
+                    analyses.add(task.get());
+                }
+                catch ( ExecutionException e ) {
+                    Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+                    throw Throwables.propagate(e.getCause());
+                }
+                catch ( InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while analyzing class files");
+                }
+            }
+            return analyses;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @NotNull
+    private Analysis analyze(@NotNull Path classFile, @NotNull BuildIndex index) throws IOException {
+        String className = className(classFile);
+        BasicFileAttributes attributes = Files.readAttributes(classFile, BasicFileAttributes.class);
+        long lastModified = attributes.lastModifiedTime().toMillis();
+        BuildIndex.Entry entry = index.get(className);
+        if ( upToDateCheck == UpToDateCheck.TIMESTAMP && entry != null && entry.hasTimestamp(lastModified, attributes.size()) ) {
+            return new Analysis(classFile, entry, false);
+        }
+        byte[] bytes = Files.readAllBytes(classFile);
+        byte[] classHash = BuildIndex.classHash(bytes);
+        if ( entry != null && entry.hasClassHash(classHash) ) {
+            return new Analysis(classFile, entry.touched(lastModified, bytes.length), true);
+        }
+        ClassContracts contracts = new ContractsReader().read(new ClassReader(bytes));
+        List<String> supertypes = new ArrayList<>();
+        if ( contracts.getSuperName() != null ) {
+            supertypes.add(contracts.getSuperName());
+        }
+        supertypes.addAll(contracts.getInterfaces());
+        return new Analysis(classFile, new BuildIndex.Entry(className, lastModified, bytes.length, classHash, BuildIndex.contractsHash(contracts), supertypes, NO_HASH), true);
+    }
+
+    @NotNull
+    private String className(@NotNull Path classFile) {
+        String path = classesDirectory.relativize(classFile).toString().replace(classFile.getFileSystem().getSeparator(), "/");
+        return path.substring(0, path.length() - CLASS_EXTENSION.length());
+    }
+
+    /**
+     * List the class files to be processed, excluding the companion classes.
+     *
+     * @return The class files, sorted by path.
+     */
+    @NotNull
+    public List<Path> scan() throws IOException {
+        long start = System.nanoTime();
+        try ( Stream<Path> files = Files.walk(classesDirectory) ) {
+            return files
+                    .filter(Files::isRegularFile)
+                    .filter(p -> {
+                        String fileName = p.getFileName().toString();
+                        return fileName.endsWith(CLASS_EXTENSION) && !fileName.endsWith(CONTRACTS_CLASS_FILE_SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        finally {
+            timings.record(Phase.SCAN, start);
+        }
+    }
+
+    /**
+     * Report the problems of the given results to the given log.
+     *
+     * @return `true`, if there were no problems.
+     */
+    public static boolean report(@NotNull Iterable<Result> results, @NotNull Log log) {
+        boolean success = true;
+        for ( Result result : results ) {
+            for ( Problem problem : result.getProblems() ) {
+                success = false;
+                if ( problem.getLocation() == null ) {
+                    log.forResource(result.getClassFile().toString()).error(problem.getMessage());
+                }
+                else {
+                    log.forResource(problem.getLocation().getResource()).error(problem.getLocation().getLineNumber(), problem.getMessage());
+                }
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Process a single class file. This method may be called concurrently and must not
+     * throw any exceptions, all problems go into the result.
+     */
+    @NotNull
+    protected Result process(@NotNull Path classFile) {
+        String className = null;
+        List<Problem> problems = new ArrayList<>();
+        Phase phase = Phase.PARSE;
+        long mark = System.nanoTime();
+        try {
+            ClassContracts contracts = new ContractsReader().read(new ClassReader(Files.readAllBytes(classFile)));
+            className = contracts.getClassName();
+            if ( contracts.isEmpty() ) {
+                mark = timings.record(phase, mark);
+                phase = Phase.WRITE;
+                // the class may have declared contracts in an earlier build
+                Files.deleteIfExists(companionFile(classFile));
+                return new Result(classFile, className, Result.Status.SKIPPED, problems);
+            }
+            Skeleton skeleton;
+            try {
+                // contracts are inherited, so we'll need the whole hierarchy
+                skeletons.prefetchHierarchy(className.replace('/', '.'));
+                skeleton = skeletons.get(className.replace('/', '.'));
+            }
+            catch ( ClassNotFoundException e ) {
+                problems.add(new Problem(null, "Cannot load skeleton of " + className + ": " + e));
+                return new Result(classFile, className, Result.Status.FAILED, problems);
+            }
+            for ( ClassContracts.Declaration declaration : contracts.getDeclarations() ) {
+                Location location = location(contracts, skeleton, declaration);
+                try {
+                    clauses.parse(location, declaration.getExpression());
+                }
+                catch ( ParseException e ) {
+                    for ( CelError error : e.getErrors() ) {
+                        problems.add(new Problem(location, "Syntax error in '" + declaration.getExpression() + "': " + error));
+                    }
+                }
+            }
+            if ( !problems.isEmpty() ) {
+                return new Result(classFile, className, Result.Status.FAILED, problems);
+            }
+            mark = timings.record(phase, mark);
+            phase = Phase.WRITE;
+            // there's no code generation yet, remove outdated companion classes
+            Files.deleteIfExists(companionFile(classFile));
+            return new Result(classFile, className, Result.Status.CHECKED, problems);
+        }
+        catch ( IOException | RuntimeException e ) {
+            problems.add(new Problem(null, "Error processing class file: " + e));
+            return new Result(classFile, className, Result.Status.FAILED, problems);
+        }
+        finally {
+            timings.record(phase, mark);
+        }
+    }
+
+    @NotNull
+    static Path companionFile(@NotNull Path classFile) {
+        String fileName = classFile.getFileName().toString();
+        return classFile.resolveSibling(fileName.substring(0, fileName.length() - CLASS_EXTENSION.length()) + CONTRACTS_CLASS_FILE_SUFFIX);
+    }
+
+    @NotNull
+    private Location location(@NotNull ClassContracts contracts, @NotNull Skeleton skeleton, @NotNull ClassContracts.Declaration declaration) {
+        String resource;
+        if ( contracts.getSourceFile() != null ) {
+            int pos = contracts.getClassName().lastIndexOf('/');
+            resource = pos < 0 ? contracts.getSourceFile() : contracts.getClassName().substring(0, pos + 1) + contracts.getSourceFile();
+        }
+        else {
+            resource = contracts.getClassName() + CLASS_EXTENSION;
+        }
+        Integer line = null;
+        if ( declaration.getTarget() == ClassContracts.Target.METHOD || declaration.getTarget() == ClassContracts.Target.PARAMETER ) {
+            line = skeleton.getLineNumber(new Method(declaration.getName(), declaration.getDescriptor()));
+        }
+        return new Location(resource, line == null ? 0 : line, 0);
+    }
+
+    private static final class Analysis {
+        private final Path classFile;
+        private final BuildIndex.Entry entry;
+        private final boolean changed;
+        private Analysis(Path classFile, BuildIndex.Entry entry, boolean changed) {
+            this.classFile = classFile;
+            this.entry = entry;
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * The result of processing a class file.
+     */
+    public static final class Result {
+
+        private final Path classFile;
+        private final String className;
+        private final Status status;
+        private final List<Problem> problems;
+
+        Result(@NotNull Path classFile, @Nullable String className, @NotNull Status status, @NotNull List<Problem> problems) {
+            this.classFile = classFile;
+            this.className = className;
+            this.status = status;
+            this.problems = ImmutableList.copyOf(problems);
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("classFile", classFile)
+                    .add("status", status)
+                    .add("problems", problems)
+                    .toString();
+        }
+
+        @NotNull
+        public Path getClassFile() {
+            return classFile;
+        }
+
+        /**
+         * The internal name of the class, `null` if the class file couldn't be read.
+         */
+        @Nullable
+        public String getClassName() {
+            return className;
+        }
+
+        @NotNull
+        public Status getStatus() {
+            return status;
+        }
+
+        @NotNull
+        public List<Problem> getProblems() {
+            return problems;
+        }
+
+        public static enum Status {
+            /**
+             * The class didn't change since the last build (incremental processing only).
+             */
+            UP_TO_DATE,
+            /**
+             * The class doesn't declare any contracts.
+             */
+            SKIPPED,
+            /**
+             * The contracts have been parsed without problems. No companion class is
+             * written, as code generation isn't implemented yet.
+             */
+            CHECKED,
+            /**
+             * There were problems, see {@link #getProblems()}.
+             */
+            FAILED
+        }
+    }
+
+    /**
+     * How to detect unchanged class files in incremental processing.
+     */
+    public static enum UpToDateCheck {
+        /**
+         * Class files with the same modification time and size as in the last build are
+         * unchanged. Other class files are compared by their content hash.
+         */
+        TIMESTAMP,
+        /**
+         * Always compare the content hashes of the class files.
+         */
+        CONTENT
+    }
+
+    /**
+     * The phases of processing.
+     */
+    public static enum Phase {
+        /**
+         * Listing the class files and comparing them to the index.
+         */
+        SCAN,
+        /**
+         * Reading the class files, loading the skeletons and parsing the contracts.
+         */
+        PARSE,
+        /**
+         * Deleting outdated companion classes.
+         */
+        WRITE
+    }
+
+    /**
+     * The time spent in each {@link Phase}. The times are summed up over all worker
+     * threads, so they may be longer than the elapsed time.
+     */
+    public static final class Timings {
+
+        private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+        private Timings() {
+            for ( int i = 0; i < nanos.length; i++ ) {
+                nanos[i] = new LongAdder();
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder buf = new StringBuilder();
+            for ( Phase phase : Phase.values() ) {
+                if ( buf.length() > 0 ) {
+                    buf.append(", ");
+                }
+                buf.append(phase.name().toLowerCase()).append('=').append(getMillis(phase)).append("ms");
+            }
+            return buf.toString();
+        }
+
+        public long getNanos(@NotNull Phase phase) {
+            return nanos[phase.ordinal()].sum();
+        }
+
+        public long getMillis(@NotNull Phase phase) {
+            return TimeUnit.NANOSECONDS.toMillis(getNanos(phase));
+        }
+
+        /**
+         * Record the time elapsed since `start` for the given phase.
+         *
+         * @return The current time, i.e. the start of the next phase.
+         */
+        long record(@NotNull Phase phase, long start) {
+            long now = System.nanoTime();
+            nanos[phase.ordinal()].add(now - start);
+            return now;
+        }
+
+    }
+
+    /**
+     * A problem found while processing a class file.
+     */
+    public static final class Problem {
+
+        private final Location location;
+        private final String message;
+
+        Problem(@Nullable Location location, @NotNull String message) {
+            this.location = location;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return location == null ? message : location + ": " + message;
+        }
+
+        @Nullable
+        public Location getLocation() {
+            return location;
+        }
+
+        @NotNull
+        public String getMessage() {
+            return message;
+        }
+    }
+
+}
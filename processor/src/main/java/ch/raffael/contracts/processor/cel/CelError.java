@@ -28,4 +28,17 @@ public class CelError {
         this.message = message;
     }
 
+    @Override
+    public String toString() {
+        return position + ": " + message;
+    }
+
+    public Position getPosition() {
+        return position;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import ch.raffael.contracts.processor.cel.ast.Clause;
+
+
+/**
+ * Caches the ASTs of Cel expressions by their source code. The same expressions (think
+ * `x != null`) recur across thousands of methods, there's no need to parse them again
+ * and again.
+ *
+ * The cached clauses are frozen (see {@link ch.raffael.contracts.processor.cel.ast.AstNode#freeze()})
+ * and shared by all callers, so any state of later compilation phases must be kept
+ * outside the tree. Positions in the AST are relative to the expression, so they're
+ * the same for every occurrence. Only successfully parsed expressions are cached,
+ * expressions with syntax errors will be parsed again to report the errors.
+ *
+ * The cache is bounded, the least recently used entries are evicted first.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public class ClauseCache {
+
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+
+    private final Cache<String, Clause> cache;
+
+    public ClauseCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public ClauseCache(long maximumSize) {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Get the AST of the given expression, parsing it if necessary.
+     *
+     * @param location   The source location of the expression, used for errors.
+     * @param expression The expression.
+     *
+     * @return The frozen AST.
+     */
+    public Clause parse(Location location, String expression) throws ParseException {
+        Clause clause = cache.getIfPresent(expression);
+        if ( clause == null ) {
+            clause = new Compiler(location, expression).parse();
+            clause.freeze();
+            Clause existing = cache.asMap().putIfAbsent(expression, clause);
+            if ( existing != null ) {
+                clause = existing;
+            }
+        }
+        return clause;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void clear() {
+        cache.invalidateAll();
+    }
+
+}
@@ -19,19 +19,24 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.antlr.v4.runtime.ANTLRErrorListener;
-import org.antlr.v4.runtime.ANTLRInputStream;
 import org.antlr.v4.runtime.BaseErrorListener;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import ch.raffael.contracts.processor.cel.ast.Clause;
-import ch.raffael.contracts.processor.cel.parser.AstBuilder;
-import ch.raffael.contracts.processor.cel.parser.CelLexer;
 import ch.raffael.contracts.processor.cel.parser.CelParser;
+import ch.raffael.contracts.processor.cel.parser.CelParserPool;
 
 
 /**
+ * Compiles a Cel expression.
+ *
+ * By default, expressions are parsed in two stages (see {@link Strategy}): The parser
+ * first tries the much cheaper SLL prediction, bailing out on the first error. Only if
+ * that fails, the expression is parsed again using full LL prediction and the usual error
+ * recovery and reporting, so the reported errors are always those of the LL parser.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public class Compiler {
@@ -39,42 +44,99 @@ public class Compiler {
     private final List<CelError> errors = new LinkedList<>();
     private final Location sourceLocation;
     private final String expression;
+    private Strategy strategy = Strategy.SLL_THEN_LL;
 
     public Compiler(Location sourceLocation, String expression) {
         this.sourceLocation = sourceLocation;
         this.expression = expression;
     }
 
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(Strategy strategy) {
+        this.strategy = strategy;
+    }
+
     public Clause parse() throws ParseException {
+        if ( strategy == Strategy.SLL_THEN_LL ) {
+            Clause ast = parseSLL();
+            if ( ast != null ) {
+                return ast;
+            }
+        }
+        return parseLL();
+    }
+
+    /**
+     * Try to parse the expression using SLL prediction.
+     *
+     * @return The AST or `null`, if there were any errors.
+     */
+    private Clause parseSLL() {
+        final boolean[] failed = { false };
         ANTLRErrorListener errorListener = new BaseErrorListener() {
             @Override
             public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
-                addANTLRError(e, msg);
+                failed[0] = true;
             }
         };
-        CelLexer lexer = new CelLexer(new ANTLRInputStream(expression));
-        lexer.addErrorListener(errorListener);
-        CelParser parser = new CelParser(new CommonTokenStream(lexer));
-        parser.addErrorListener(errorListener);
+        CelParser parser = CelParserPool.get().sllParser(expression, errorListener);
         try {
-            Clause ast = new AstBuilder().install(parser).clause().node;
-            if ( ast == null ) {
-                if ( errors.isEmpty() ) {
-                    throw new IllegalStateException("No AST returned, but no errors reported");
-                }
+            Clause ast = parser.clause().node;
+            return failed[0] ? null : ast;
+        }
+        catch ( ParseCancellationException e ) {
+            return null;
+        }
+    }
+
+    private Clause parseLL() throws ParseException {
+        ANTLRErrorListener errorListener = new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine, String msg, RecognitionException e) {
+                // e is null for errors the parser recovered from in-line and has no
+                // offending token for lexer errors, so use the reported position
+                addANTLRError(line, charPositionInLine, msg);
+            }
+        };
+        CelParser parser = CelParserPool.get().parser(expression, errorListener);
+        try {
+            Clause ast = parser.clause().node;
+            if ( !errors.isEmpty() ) {
+                // the parser may recover from some errors (and the lexer from all of
+                // them) and still return an AST
                 throw new ParseException(errors);
             }
+            if ( ast == null ) {
+                throw new IllegalStateException("No AST returned, but no errors reported");
+            }
             return ast;
         }
         catch ( RecognitionException e ) {
             // should not happen
-            addANTLRError(e, "Unexpected: " + e.toString());
+            addANTLRError(e.getOffendingToken().getLine(), e.getOffendingToken().getCharPositionInLine(), "Unexpected: " + e.toString());
             throw new ParseException(errors);
         }
     }
 
-    private void addANTLRError(RecognitionException e, String msg) {
-        errors.add(new CelError(new Position(e.getOffendingToken().getLine(), e.getOffendingToken().getCharPositionInLine()), msg));
+    /**
+     * The parsing strategies.
+     */
+    public static enum Strategy {
+        /**
+         * Parse using full LL prediction only.
+         */
+        LL,
+        /**
+         * Try SLL prediction first, fall back to LL if there are any errors.
+         */
+        SLL_THEN_LL
+    }
+
+    private void addANTLRError(int line, int charPositionInLine, String msg) {
+        errors.add(new CelError(new Position(line, charPositionInLine), msg));
     }
 
 }
@@ -29,4 +29,21 @@ public class Location {
         this.lineNumber = lineNumber;
         this.charInLine = charInLine;
     }
+
+    @Override
+    public String toString() {
+        return resource + ":" + lineNumber + ":" + charInLine;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getCharInLine() {
+        return charInLine;
+    }
 }
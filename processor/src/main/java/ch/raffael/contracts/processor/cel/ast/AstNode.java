@@ -35,11 +35,18 @@ import static com.google.common.base.Preconditions.checkState;
 
 
 /**
+ * Base class for all AST nodes.
+ *
+ * A tree may be frozen using {@link #freeze()}. Frozen trees are immutable: Annotations
+ * and errors cannot be changed anymore and the root can't be added to another tree, so
+ * they may be shared, e.g. by a {@link ch.raffael.contracts.processor.cel.ClauseCache}.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public abstract class AstNode {
 
     private AstNode parent;
+    private boolean frozen = false;
 
     private final Position position;
     private final USet<CelError> errors = new USet(new LinkedHashSet<>());
@@ -130,9 +137,26 @@ public abstract class AstNode {
     }
 
     public void addError(CelError error) {
+        checkNotFrozen();
         errors.add(error);
     }
 
+    /**
+     * Freeze this node and all its descendants.
+     */
+    public void freeze() {
+        if ( !frozen ) {
+            for ( AstNode child : getChildren() ) {
+                child.freeze();
+            }
+            frozen = true;
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
     @NotNull
     @Contract("return === visitor")
     public <T extends AstVisitor> T accept(@NotNull T visitor) {
@@ -145,6 +169,7 @@ public abstract class AstNode {
     protected <T extends AstNode> T child(T child) {
         AstNode c = child; // private access won't work with child.parent
         checkState(c.parent == null, "Child already has a parent");
+        checkState(!c.frozen, "Child is frozen");
         c.parent = this;
         return child;
     }
@@ -158,6 +183,7 @@ public abstract class AstNode {
 
     @SuppressWarnings("unchecked")
     public <T> T set(Annotation<T> annotation, T value) {
+        checkNotFrozen();
         if ( value == null ) {
             return (T)annotations.remove(annotation);
         }
@@ -176,6 +202,10 @@ public abstract class AstNode {
         return value;
     }
 
+    private void checkNotFrozen() {
+        checkState(!frozen, "AST node is frozen: %s", this);
+    }
+
     @SuppressWarnings("unchecked")
     @Contract("fallback != null -> return != null")
     public <T> T get(@NotNull Annotation<T> annotation, T fallback) {
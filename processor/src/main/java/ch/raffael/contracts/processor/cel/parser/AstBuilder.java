@@ -274,6 +274,7 @@ public class AstBuilder extends CelBaseListener {
 
         @Override
         public void reset(@NotNull Parser recognizer) {
+            delegate.reset(recognizer);
         }
 
         @Override
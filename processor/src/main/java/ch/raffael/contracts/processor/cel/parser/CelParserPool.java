@@ -0,0 +1,133 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.parser;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.misc.NotNull;
+
+
+/**
+ * Thread-confined reuse of the Cel lexer and parser. Creating a lexer and a parser is
+ * expensive compared to parsing the short Cel expressions: Each of them creates its ATN
+ * simulator, the parser its token stream, context stack etc. The pool keeps one lexer,
+ * token stream and parser per thread and resets them for each expression.
+ *
+ * The DFA caches ANTLR builds while predicting are static in the generated lexer and
+ * parser, so they're already shared by all instances and threads (ANTLR synchronizes
+ * the updates). {@link #clearCaches()} drops them when memory matters; they will be
+ * rebuilt on demand.
+ *
+ * The parser returned by {@link #parser(String, ANTLRErrorListener)} or
+ * {@link #sllParser(String, ANTLRErrorListener)} is only valid until the next call on the
+ * same thread, so this class is not reentrant.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class CelParserPool {
+
+    private static final ThreadLocal<CelParserPool> POOL = new ThreadLocal<CelParserPool>() {
+        @Override
+        protected CelParserPool initialValue() {
+            return new CelParserPool();
+        }
+    };
+
+    private final CelLexer lexer;
+    private final CommonTokenStream tokens;
+    private final CelParser parser;
+    private final ANTLRErrorStrategy errorStrategy;
+    private final ANTLRErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+
+    private CelParserPool() {
+        lexer = new CelLexer(new ANTLRInputStream(""));
+        tokens = new CommonTokenStream(lexer);
+        parser = new CelParser(tokens);
+        errorStrategy = parser.getErrorHandler();
+    }
+
+    /**
+     * Get the pool of the current thread.
+     */
+    @NotNull
+    public static CelParserPool get() {
+        return POOL.get();
+    }
+
+    /**
+     * Prepare the parser of this thread to parse the given expression using full LL
+     * prediction and the default error recovery. The {@link AstBuilder} is installed,
+     * error listeners of previous runs are removed.
+     *
+     * @param expression    The expression to parse.
+     * @param errorListener The error listener for both, the lexer and the parser.
+     */
+    @NotNull
+    public CelParser parser(@NotNull String expression, @NotNull ANTLRErrorListener errorListener) {
+        return prepare(expression, errorListener, errorStrategy, PredictionMode.LL);
+    }
+
+    /**
+     * Prepare the parser of this thread to parse the given expression using SLL
+     * prediction. Instead of recovering from errors, the parser throws a
+     * `ParseCancellationException` on the first syntax error.
+     *
+     * @see #parser(String, ANTLRErrorListener)
+     */
+    @NotNull
+    public CelParser sllParser(@NotNull String expression, @NotNull ANTLRErrorListener errorListener) {
+        return prepare(expression, errorListener, bailErrorStrategy, PredictionMode.SLL);
+    }
+
+    @NotNull
+    private CelParser prepare(String expression, ANTLRErrorListener errorListener, ANTLRErrorStrategy errorStrategy, PredictionMode predictionMode) {
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+        lexer.setInputStream(new ANTLRInputStream(expression));
+        tokens.setTokenSource(lexer);
+        parser.removeParseListeners();
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        parser.getInterpreter().setPredictionMode(predictionMode);
+        // the AstBuilder wraps the error strategy, set the plain one before resetting
+        // the parser
+        parser.setErrorHandler(errorStrategy);
+        parser.setInputStream(tokens);
+        return new AstBuilder().install(parser);
+    }
+
+    /**
+     * Clear the DFA caches of the lexer and the parser. Parsers currently running on
+     * other threads may still use the old DFAs until they finish the current decision.
+     */
+    public static void clearCaches() {
+        clear(CelLexer._decisionToDFA, CelLexer._ATN);
+        clear(CelParser._decisionToDFA, CelParser._ATN);
+    }
+
+    private static void clear(DFA[] decisionToDFA, ATN atn) {
+        for ( int i = 0; i < decisionToDFA.length; i++ ) {
+            decisionToDFA[i] = new DFA(atn.getDecisionState(i), i);
+        }
+    }
+
+}
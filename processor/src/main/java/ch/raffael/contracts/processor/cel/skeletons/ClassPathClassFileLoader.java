@@ -0,0 +1,433 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import com.google.common.base.Objects;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+
+
+/**
+ * A {@link ClassFileLoader} loading class files from a class path of directories and
+ * jar files.
+ *
+ * The central directories of all jar files are read once when the loader is created and
+ * merged into one immutable index, so looking up a class is a single hash lookup and
+ * doesn't need any locking. The jar files are memory-mapped, the entries are copied or
+ * inflated directly from the mapped buffers using one {@link Inflater} per thread, which
+ * is reused for all entries. Directories aren't indexed, they're looked up on demand
+ * respecting the order of the class path.
+ *
+ * If `includeRuntime` is set, the classes of the running JDK will be found, too (before
+ * any class path entries, like the bootstrap class loader does): On Java 9+, they're
+ * read from the `jrt:/` file system, on Java 8 from `lib/rt.jar`. Note that the
+ * {@link SkeletonClassLoader} doesn't need them, it always loads JDK classes from the
+ * bootstrap class loader.
+ *
+ * Only the base entries of multi-release jars are used, ASM 5 can't read the class files
+ * in `META-INF/versions/` anyway. Jar files larger than 2GB aren't supported. The jar
+ * files remain mapped until the loader is garbage collected, so they can't be deleted on
+ * Windows while the loader is still in use.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class ClassPathClassFileLoader implements ClassFileLoader {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final String CLASS_EXTENSION = ".class";
+
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    private final List<Directory> directories;
+    private final Map<String, Entry> index;
+    private final RuntimeImage runtime;
+
+    public ClassPathClassFileLoader(@NotNull List<Path> classPath) throws IOException {
+        this(classPath, false);
+    }
+
+    /**
+     * @param classPath       The class path, entries that don't exist are ignored.
+     * @param includeRuntime  Whether to load the classes of the running JDK as well.
+     */
+    public ClassPathClassFileLoader(@NotNull List<Path> classPath, boolean includeRuntime) throws IOException {
+        List<Directory> directories = new ArrayList<>();
+        Map<String, Entry> index = new HashMap<>();
+        RuntimeImage runtime = null;
+        if ( includeRuntime ) {
+            Path rtJar = Paths.get(System.getProperty("java.home"), "lib", "rt.jar");
+            if ( Files.isRegularFile(rtJar) ) {
+                indexJar(rtJar, -1, index);
+            }
+            else {
+                runtime = new RuntimeImage(FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/"));
+            }
+        }
+        for ( int i = 0; i < classPath.size(); i++ ) {
+            Path element = classPath.get(i);
+            if ( Files.isDirectory(element) ) {
+                directories.add(new Directory(element, i));
+            }
+            else if ( Files.isRegularFile(element) ) {
+                indexJar(element, i, index);
+            }
+        }
+        this.directories = Collections.unmodifiableList(directories);
+        this.index = Collections.unmodifiableMap(index);
+        this.runtime = runtime;
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(this)
+                .add("directories", directories.size())
+                .add("indexedClasses", index.size())
+                .add("jrt", runtime != null)
+                .toString();
+    }
+
+    @Override
+    @Nullable
+    public byte[] loadClassFile(@NotNull String className) throws IOException {
+        String path = ClassFileLoader.nameToPath(className);
+        if ( runtime != null ) {
+            byte[] classFile = runtime.read(path);
+            if ( classFile != null ) {
+                return classFile;
+            }
+        }
+        Entry entry = index.get(path);
+        int limit = entry == null ? Integer.MAX_VALUE : entry.position;
+        for ( Directory directory : directories ) {
+            if ( directory.position > limit ) {
+                break;
+            }
+            byte[] classFile = directory.read(path);
+            if ( classFile != null ) {
+                return classFile;
+            }
+        }
+        return entry == null ? null : entry.read();
+    }
+
+    public int getIndexedClassCount() {
+        return index.size();
+    }
+
+    /**
+     * Read the central directory of a jar file and add all class files to the index,
+     * unless an earlier class path entry already contains them.
+     */
+    private static void indexJar(Path file, int position, Map<String, Entry> index) throws IOException {
+        ByteBuffer buffer = map(file);
+        int end = findEnd(buffer, file);
+        long directorySize = uint32(buffer, end + 12);
+        long directoryOffset = uint32(buffer, end + 16);
+        long base;
+        if ( directoryOffset == 0xffffffffL || directorySize == 0xffffffffL ) {
+            int locator = end - ZIP64_LOCATOR_SIZE;
+            if ( locator < 0 || buffer.getInt(locator) != ZIP64_LOCATOR_SIGNATURE ) {
+                throw new ZipException("Invalid zip file: " + file);
+            }
+            int zip64End = checkOffset(buffer.getLong(locator + 8), buffer, file);
+            if ( buffer.getInt(zip64End) != ZIP64_END_SIGNATURE ) {
+                throw new ZipException("Invalid zip file: " + file);
+            }
+            directorySize = buffer.getLong(zip64End + 40);
+            directoryOffset = buffer.getLong(zip64End + 48);
+            base = 0;
+        }
+        else {
+            // there may be some data prepended to the zip file (e.g. a launcher script),
+            // the offsets are relative to the start of the actual zip file in this case
+            base = end - directorySize - directoryOffset;
+        }
+        int pos = checkOffset(base + directoryOffset, buffer, file);
+        int directoryEnd = checkOffset(base + directoryOffset + directorySize, buffer, file);
+        while ( pos < directoryEnd ) {
+            if ( pos + CENTRAL_HEADER_SIZE > directoryEnd || buffer.getInt(pos) != CENTRAL_HEADER_SIGNATURE ) {
+                throw new ZipException("Invalid central directory: " + file);
+            }
+            int flags = uint16(buffer, pos + 8);
+            int method = uint16(buffer, pos + 10);
+            long compressedSize = uint32(buffer, pos + 20);
+            long size = uint32(buffer, pos + 24);
+            int nameLength = uint16(buffer, pos + 28);
+            int extraLength = uint16(buffer, pos + 30);
+            int commentLength = uint16(buffer, pos + 32);
+            long offset = uint32(buffer, pos + 42);
+            String name = string(buffer, pos + CENTRAL_HEADER_SIZE, nameLength);
+            if ( name.endsWith(CLASS_EXTENSION) && (flags & 1) == 0 && !index.containsKey(name) ) {
+                if ( compressedSize == 0xffffffffL || size == 0xffffffffL || offset == 0xffffffffL ) {
+                    // the actual values are in the ZIP64 extra field, in this order, but
+                    // only those that don't fit into the header
+                    int extra = findExtra(buffer, pos + CENTRAL_HEADER_SIZE + nameLength, extraLength, ZIP64_EXTRA_ID);
+                    if ( extra < 0 ) {
+                        throw new ZipException("Missing ZIP64 extra field for " + name + ": " + file);
+                    }
+                    if ( size == 0xffffffffL ) {
+                        size = buffer.getLong(extra);
+                        extra += 8;
+                    }
+                    if ( compressedSize == 0xffffffffL ) {
+                        compressedSize = buffer.getLong(extra);
+                        extra += 8;
+                    }
+                    if ( offset == 0xffffffffL ) {
+                        offset = buffer.getLong(extra);
+                    }
+                }
+                if ( size > Integer.MAX_VALUE || compressedSize > Integer.MAX_VALUE ) {
+                    throw new ZipException("Entry too large: " + name + ": " + file);
+                }
+                index.put(name, new Entry(file, buffer, position, method, checkOffset(base + offset, buffer, file),
+                                          (int)compressedSize, (int)size));
+            }
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+    }
+
+    private static ByteBuffer map(Path file) throws IOException {
+        // the mapping remains valid after the channel has been closed
+        try ( FileChannel channel = FileChannel.open(file, StandardOpenOption.READ) ) {
+            if ( channel.size() > Integer.MAX_VALUE ) {
+                throw new ZipException("Zip file too large: " + file);
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+    }
+
+    private static int findEnd(ByteBuffer buffer, Path file) throws ZipException {
+        int limit = Math.max(0, buffer.limit() - END_SIZE - MAX_COMMENT_SIZE);
+        for ( int pos = buffer.limit() - END_SIZE; pos >= limit; pos-- ) {
+            if ( buffer.getInt(pos) == END_SIGNATURE && pos + END_SIZE + uint16(buffer, pos + 20) == buffer.limit() ) {
+                return pos;
+            }
+        }
+        throw new ZipException("Invalid zip file: " + file);
+    }
+
+    private static int findExtra(ByteBuffer buffer, int pos, int length, int id) {
+        int end = pos + length;
+        while ( pos + 4 <= end ) {
+            int size = uint16(buffer, pos + 2);
+            if ( uint16(buffer, pos) == id ) {
+                return pos + 4;
+            }
+            pos += 4 + size;
+        }
+        return -1;
+    }
+
+    private static int checkOffset(long offset, ByteBuffer buffer, Path file) throws ZipException {
+        if ( offset < 0 || offset > buffer.limit() ) {
+            throw new ZipException("Invalid offset " + offset + ": " + file);
+        }
+        return (int)offset;
+    }
+
+    private static int uint16(ByteBuffer buffer, int pos) {
+        return buffer.getShort(pos) & 0xffff;
+    }
+
+    private static long uint32(ByteBuffer buffer, int pos) {
+        return buffer.getInt(pos) & 0xffffffffL;
+    }
+
+    private static String string(ByteBuffer buffer, int pos, int length) {
+        byte[] bytes = new byte[length];
+        read(buffer, pos, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void read(ByteBuffer buffer, int pos, byte[] target, int offset, int length) {
+        // work on a duplicate, the position of the shared buffer must never change
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(target, offset, length);
+    }
+
+    /**
+     * A class file in a jar file.
+     */
+    private static final class Entry {
+
+        private final Path file;
+        private final ByteBuffer buffer;
+        private final int position;
+        private final int method;
+        private final int offset;
+        private final int compressedSize;
+        private final int size;
+
+        private Entry(Path file, ByteBuffer buffer, int position, int method, int offset, int compressedSize, int size) {
+            this.file = file;
+            this.buffer = buffer;
+            this.position = position;
+            this.method = method;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        private byte[] read() throws IOException {
+            if ( offset + LOCAL_HEADER_SIZE > buffer.limit() || buffer.getInt(offset) != LOCAL_HEADER_SIGNATURE ) {
+                throw new ZipException("Invalid local header at " + offset + ": " + file);
+            }
+            // the extra field in the local header may differ from the one in the central
+            // directory, so we need to read the local header to find the data
+            int data = offset + LOCAL_HEADER_SIZE + uint16(buffer, offset + 26) + uint16(buffer, offset + 28);
+            if ( (long)data + compressedSize > buffer.limit() ) {
+                throw new ZipException("Truncated entry at " + offset + ": " + file);
+            }
+            byte[] classFile = new byte[size];
+            if ( method == STORED ) {
+                ClassPathClassFileLoader.read(buffer, data, classFile, 0, size);
+            }
+            else if ( method == DEFLATED ) {
+                // the inflater may need an extra dummy byte with nowrap
+                byte[] input = new byte[compressedSize + 1];
+                ClassPathClassFileLoader.read(buffer, data, input, 0, compressedSize);
+                Inflater inflater = INFLATER.get();
+                try {
+                    inflater.setInput(input);
+                    int count = 0;
+                    while ( count < size ) {
+                        int n = inflater.inflate(classFile, count, size - count);
+                        if ( n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()) ) {
+                            throw new ZipException("Truncated entry at " + offset + ": " + file);
+                        }
+                        count += n;
+                    }
+                }
+                catch ( DataFormatException e ) {
+                    throw new ZipException("Corrupt entry at " + offset + ": " + file + ": " + e.getMessage());
+                }
+                finally {
+                    inflater.reset();
+                }
+            }
+            else {
+                throw new ZipException("Unsupported compression method " + method + " at " + offset + ": " + file);
+            }
+            return classFile;
+        }
+    }
+
+    private static final class Directory {
+
+        private final Path path;
+        private final int position;
+
+        private Directory(Path path, int position) {
+            this.path = path;
+            this.position = position;
+        }
+
+        @Nullable
+        private byte[] read(String classFile) throws IOException {
+            try {
+                return Files.readAllBytes(path.resolve(classFile));
+            }
+            catch ( NoSuchFileException e ) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * The `jrt:/` file system of Java 9+. `/packages` contains a directory for each
+     * package containing a link for each module containing that package, so we can map
+     * the packages to the modules once and then read the class files directly from
+     * `/modules/<module>/`.
+     */
+    private static final class RuntimeImage {
+
+        private final Map<String, Path> packages;
+
+        private RuntimeImage(Path root) throws IOException {
+            Map<String, Path> packages = new HashMap<>();
+            try ( DirectoryStream<Path> packageDirs = Files.newDirectoryStream(root.resolve("packages")) ) {
+                for ( Path packageDir : packageDirs ) {
+                    try ( DirectoryStream<Path> modules = Files.newDirectoryStream(packageDir) ) {
+                        for ( Path module : modules ) {
+                            packages.putIfAbsent(packageDir.getFileName().toString().replace('.', '/'),
+                                                 root.resolve("modules").resolve(module.getFileName().toString()));
+                            break;
+                        }
+                    }
+                }
+            }
+            this.packages = Collections.unmodifiableMap(packages);
+        }
+
+        @Nullable
+        private byte[] read(String classFile) throws IOException {
+            int slash = classFile.lastIndexOf('/');
+            Path module = packages.get(slash < 0 ? "" : classFile.substring(0, slash));
+            if ( module == null ) {
+                return null;
+            }
+            try {
+                return Files.readAllBytes(module.resolve(classFile));
+            }
+            catch ( NoSuchFileException e ) {
+                return null;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+
+
+/**
+ * Process-wide {@link SkeletonPool}s for the jar files of a class path, shared by all
+ * builds in the same JVM (e.g. all modules of a Maven reactor).
+ *
+ * The skeletons of a class may depend on any class on the class path, so a pool can only
+ * be shared by builds using the same jar files in the same order. The pools are keyed by
+ * the paths, modification times and sizes of these jar files, a changed jar file results
+ * in a new pool. The {@link SkeletonCache} is part of the key as well, builds with
+ * different caches (or none) don't share a pool. Directories (the build's own classes, the classes of other modules in
+ * the same build) usually differ, each build puts them into its own pool on top of the
+ * shared one:
+ *
+ * ```java
+ * try ( SharedSkeletonPools.Lease shared = SharedSkeletonPools.acquire(jars, cache) ) {
+ *     SkeletonPool skeletons = new SkeletonPool(shared.getPool(), new ClassPathClassFileLoader(directories), cache);
+ *     // ...
+ * }
+ * ```
+ *
+ * The pools are reference counted. Pools not used by any build are kept in a small LRU
+ * list of at most {@link #MAX_IDLE_POOLS} pools, softly referenced, so the memory
+ * footprint of the build doesn't grow with the number of modules and the garbage
+ * collector may reclaim them if memory gets low.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class SharedSkeletonPools {
+
+    /**
+     * The maximum number of unused pools to keep.
+     */
+    public static final int MAX_IDLE_POOLS = 4;
+
+    private static final Object LOCK = new Object();
+    private static final Map<Key, Shared> ACTIVE = new HashMap<>();
+    private static final Map<Key, SoftReference<SkeletonPool>> IDLE =
+            new LinkedHashMap<Key, SoftReference<SkeletonPool>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, SoftReference<SkeletonPool>> eldest) {
+                    return size() > MAX_IDLE_POOLS;
+                }
+            };
+
+    private SharedSkeletonPools() {
+    }
+
+    /**
+     * Acquire the shared pool for the given jar files and skeleton cache, creating it if
+     * necessary. The returned lease must be closed when the pool isn't used anymore.
+     *
+     * @param cache The persistent skeleton cache of the pool, may be `null`.
+     */
+    @NotNull
+    public static Lease acquire(@NotNull List<Path> jars, @Nullable SkeletonCache cache) throws IOException {
+        ImmutableList.Builder<JarIdentity> builder = ImmutableList.builder();
+        for ( Path jar : jars ) {
+            builder.add(JarIdentity.of(jar));
+        }
+        Key key = new Key(builder.build(), cache == null ? null : cache.getDirectory().toAbsolutePath().normalize());
+        Shared shared;
+        synchronized ( LOCK ) {
+            shared = ACTIVE.get(key);
+            if ( shared == null ) {
+                SoftReference<SkeletonPool> idle = IDLE.remove(key);
+                shared = new Shared(key, idle == null ? null : idle.get());
+                ACTIVE.put(key, shared);
+            }
+            shared.refCount++;
+        }
+        boolean success = false;
+        try {
+            Lease lease = new Lease(shared, shared.pool(jars, cache));
+            success = true;
+            return lease;
+        }
+        finally {
+            if ( !success ) {
+                release(shared);
+            }
+        }
+    }
+
+    /**
+     * The number of pools currently in use.
+     */
+    public static int getActiveCount() {
+        synchronized ( LOCK ) {
+            return ACTIVE.size();
+        }
+    }
+
+    /**
+     * Drop all unused pools.
+     */
+    public static void clearIdle() {
+        synchronized ( LOCK ) {
+            IDLE.clear();
+        }
+    }
+
+    private static void release(Shared shared) {
+        synchronized ( LOCK ) {
+            if ( --shared.refCount == 0 ) {
+                ACTIVE.remove(shared.key);
+                if ( shared.pool != null ) {
+                    IDLE.put(shared.key, new SoftReference<>(shared.pool));
+                }
+            }
+        }
+    }
+
+    /**
+     * A build's use of a shared pool.
+     */
+    public static final class Lease implements AutoCloseable {
+
+        private final Shared shared;
+        private final SkeletonPool pool;
+        private final boolean reused;
+        private boolean closed = false;
+
+        private Lease(Shared shared, Created created) {
+            this.shared = shared;
+            this.pool = created.pool;
+            this.reused = created.reused;
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toStringHelper(this)
+                    .add("jars", shared.key.jars.size())
+                    .add("reused", reused)
+                    .add("closed", closed)
+                    .toString();
+        }
+
+        @NotNull
+        public SkeletonPool getPool() {
+            return pool;
+        }
+
+        /**
+         * `true`, if the pool has been created by an earlier build.
+         */
+        public boolean isReused() {
+            return reused;
+        }
+
+        @Override
+        public synchronized void close() {
+            if ( !closed ) {
+                closed = true;
+                release(shared);
+            }
+        }
+    }
+
+    private static final class Shared {
+
+        private final Key key;
+        private SkeletonPool pool;
+        private int refCount = 0;
+
+        private Shared(Key key, SkeletonPool pool) {
+            this.key = key;
+            this.pool = pool;
+        }
+
+        /**
+         * Create the pool on first use. This is synchronized on the pool only, so builds
+         * using other jar files don't have to wait while the jar files get indexed.
+         */
+        private synchronized Created pool(List<Path> jars, SkeletonCache cache) throws IOException {
+            if ( pool != null ) {
+                return new Created(pool, true);
+            }
+            SkeletonPool created = new SkeletonPool(new ClassPathClassFileLoader(jars), cache);
+            synchronized ( LOCK ) {
+                // publish to release() under the same lock
+                pool = created;
+            }
+            return new Created(created, false);
+        }
+    }
+
+    private static final class Created {
+        private final SkeletonPool pool;
+        private final boolean reused;
+        private Created(SkeletonPool pool, boolean reused) {
+            this.pool = pool;
+            this.reused = reused;
+        }
+    }
+
+    private static final class Key {
+
+        private final List<JarIdentity> jars;
+        private final Path cacheDirectory;
+
+        private Key(List<JarIdentity> jars, Path cacheDirectory) {
+            this.jars = jars;
+            this.cacheDirectory = cacheDirectory;
+        }
+
+        @SuppressWarnings("SimplifiableIfStatement")
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( o == null || getClass() != o.getClass() ) {
+                return false;
+            }
+            Key that = (Key)o;
+            return jars.equals(that.jars) && Objects.equal(cacheDirectory, that.cacheDirectory);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(jars, cacheDirectory);
+        }
+
+        @Override
+        public String toString() {
+            return jars + (cacheDirectory == null ? "" : "@" + cacheDirectory);
+        }
+    }
+
+    private static final class JarIdentity {
+
+        private final Path path;
+        private final long lastModified;
+        private final long size;
+
+        private JarIdentity(Path path, long lastModified, long size) {
+            this.path = path;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        private static JarIdentity of(Path jar) throws IOException {
+            Path path = jar.toAbsolutePath().normalize();
+            if ( !Files.isRegularFile(path) ) {
+                // ClassPathClassFileLoader ignores missing entries, so do we
+                return new JarIdentity(path, -1, -1);
+            }
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new JarIdentity(path, attributes.lastModifiedTime().toMillis(), attributes.size());
+        }
+
+        @SuppressWarnings("SimplifiableIfStatement")
+        @Override
+        public boolean equals(Object o) {
+            if ( this == o ) {
+                return true;
+            }
+            if ( o == null || getClass() != o.getClass() ) {
+                return false;
+            }
+            JarIdentity that = (JarIdentity)o;
+            return lastModified == that.lastModified && size == that.size && path.equals(that.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(path, lastModified, size);
+        }
+
+        @Override
+        public String toString() {
+            return path + "@" + lastModified + ":" + size;
+        }
+    }
+
+}
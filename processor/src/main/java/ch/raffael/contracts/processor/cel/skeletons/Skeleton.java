@@ -38,7 +38,13 @@ public final class Skeleton {
         this.skeletonClass = skeletonClass;
         typeToken = TypeToken.of(skeletonClass);
         asmType = Type.getType(skeletonClass);
-        lineNumbers = ((SkeletonClassLoader)skeletonClass.getClassLoader()).lineNumbers.getOrDefault(skeletonClass, ImmutableMap.of());
+        if ( skeletonClass.getClassLoader() instanceof SkeletonClassLoader ) {
+            lineNumbers = ((SkeletonClassLoader)skeletonClass.getClassLoader()).lineNumbers.getOrDefault(skeletonClass, ImmutableMap.of());
+        }
+        else {
+            // JDK classes
+            lineNumbers = ImmutableMap.of();
+        }
     }
 
     public String className() {
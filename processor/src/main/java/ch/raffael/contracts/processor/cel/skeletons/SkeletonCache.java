@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.collect.ImmutableMap;
+import org.objectweb.asm.commons.Method;
+
+import ch.raffael.contracts.NotNull;
+import ch.raffael.contracts.Nullable;
+import ch.raffael.contracts.processor.ContractsProcessor;
+import ch.raffael.contracts.processor.util.Digester;
+
+
+/**
+ * A persistent cache of skeletons, shared by all processor runs using the same cache
+ * directory. Most classes referenced by contracts (JDK and library classes) never change,
+ * so their skeletons can be defined directly from the cache instead of being generated
+ * again on every build.
+ *
+ * The key is the hash of the processor version, the {@link #FORMAT_VERSION} and the
+ * original class file. Each entry is stored in its own file, containing the skeleton's
+ * class file and its line number table. Entries are written to a temporary file and then
+ * moved into place, so several processes may use the same cache concurrently.
+ *
+ * The cache is best effort: Entries that can't be read or written are simply missed.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+public final class SkeletonCache {
+
+    /**
+     * Increment this whenever the generated skeletons change.
+     */
+    static final int FORMAT_VERSION = 2;
+
+    private static final int MAGIC = 0x43545343; // CTSC
+
+    private final Path directory;
+    private final String processorVersion;
+    private final int formatVersion;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
+    public SkeletonCache(@NotNull Path directory) {
+        this(directory, ContractsProcessor.getVersion(), FORMAT_VERSION);
+    }
+
+    SkeletonCache(@NotNull Path directory, @NotNull String processorVersion, int formatVersion) {
+        this.directory = directory;
+        this.processorVersion = processorVersion;
+        this.formatVersion = formatVersion;
+    }
+
+    @NotNull
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    /**
+     * Compute the key for the given original class file.
+     */
+    @NotNull
+    byte[] key(@NotNull byte[] classFile) {
+        Digester digester = new Digester();
+        digester.writeUTF(processorVersion);
+        digester.writeInt(formatVersion);
+        digester.write(classFile);
+        return digester.digest();
+    }
+
+    /**
+     * Look up a skeleton.
+     *
+     * @return The skeleton or `null`, if it's not in the cache.
+     */
+    @Nullable
+    Entry load(@NotNull byte[] key) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(file(key));
+        }
+        catch ( IOException e ) {
+            // usually NoSuchFileException
+            missCount.increment();
+            return null;
+        }
+        try ( DataInputStream input = new DataInputStream(new ByteArrayInputStream(data)) ) {
+            if ( input.readInt() != MAGIC ) {
+                missCount.increment();
+                return null;
+            }
+            int lineNumberCount = input.readInt();
+            ImmutableMap.Builder<Method, Integer> lineNumbers = ImmutableMap.builder();
+            for ( int i = 0; i < lineNumberCount; i++ ) {
+                lineNumbers.put(new Method(input.readUTF(), input.readUTF()), input.readInt());
+            }
+            int length = input.readInt();
+            if ( length < 0 || length > input.available() ) {
+                missCount.increment();
+                return null;
+            }
+            byte[] classFile = new byte[length];
+            input.readFully(classFile);
+            hitCount.increment();
+            return new Entry(classFile, lineNumbers.build());
+        }
+        catch ( IOException | RuntimeException e ) {
+            // truncated or corrupt, will be overwritten
+            missCount.increment();
+            return null;
+        }
+    }
+
+    /**
+     * Store a skeleton.
+     */
+    void store(@NotNull byte[] key, @NotNull Entry entry) {
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream(entry.classFile.length + 256);
+            try ( DataOutputStream output = new DataOutputStream(data) ) {
+                output.writeInt(MAGIC);
+                output.writeInt(entry.lineNumbers.size());
+                for ( Map.Entry<Method, Integer> lineNumber : entry.lineNumbers.entrySet() ) {
+                    output.writeUTF(lineNumber.getKey().getName());
+                    output.writeUTF(lineNumber.getKey().getDescriptor());
+                    output.writeInt(lineNumber.getValue());
+                }
+                output.writeInt(entry.classFile.length);
+                output.write(entry.classFile);
+            }
+            Path file = file(key);
+            Files.createDirectories(file.getParent());
+            Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try {
+                Files.write(tmp, data.toByteArray());
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+        catch ( IOException e ) {
+            // best effort
+        }
+    }
+
+    @NotNull
+    private Path file(@NotNull byte[] key) {
+        StringBuilder hex = new StringBuilder(key.length * 2);
+        for ( byte b : key ) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return directory.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    /**
+     * A cached skeleton.
+     */
+    static final class Entry {
+
+        final byte[] classFile;
+        final Map<Method, Integer> lineNumbers;
+
+        Entry(@NotNull byte[] classFile, @NotNull Map<Method, Integer> lineNumbers) {
+            this.classFile = classFile;
+            this.lineNumbers = lineNumbers;
+        }
+    }
+
+}
@@ -19,7 +19,6 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
-import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.MapMaker;
 import org.objectweb.asm.ClassReader;
@@ -40,33 +39,103 @@ final class SkeletonClassLoader extends ClassLoader {
         registerAsParallelCapable();
     }
 
-    final Map<Class<?>, Map<Method, Integer>> lineNumbers = new MapMaker().concurrencyLevel(1).makeMap();
+    final Map<Class<?>, Map<Method, Integer>> lineNumbers = new MapMaker().makeMap();
 
     private final ClassFileLoader classFileLoader;
+    private final SkeletonCache cache;
 
     private static final ConcurrentMap<ClassLoader, SkeletonClassLoader> SKELETON_LOADERS =
             new MapMaker().concurrencyLevel(1).weakKeys().makeMap();
 
     public SkeletonClassLoader(ClassFileLoader classFileLoader) {
-        super(null);
+        this(classFileLoader, null);
+    }
+
+    public SkeletonClassLoader(ClassFileLoader classFileLoader, SkeletonCache cache) {
+        this(null, classFileLoader, cache);
+    }
+
+    /**
+     * Create a skeleton class loader on top of another one (usually one shared by several
+     * modules, see {@link SharedSkeletonPools}). Unlike the standard delegation model, the
+     * own class files take precedence over the parent's, the own classes usually come
+     * first on the class path.
+     */
+    public SkeletonClassLoader(SkeletonClassLoader parent, ClassFileLoader classFileLoader, SkeletonCache cache) {
+        super(parent);
         this.classFileLoader = classFileLoader;
+        this.cache = cache;
+    }
+
+    @Override
+    protected Class<?> loadClass(String className, boolean resolve) throws ClassNotFoundException {
+        if ( className.equals(SkeletonInvocationError.class.getName()) ) {
+            // thrown by all skeleton methods, the verifier needs it when linking a skeleton
+            return SkeletonInvocationError.class;
+        }
+        if ( getParent() == null || className.startsWith("java.") ) {
+            return super.loadClass(className, resolve);
+        }
+        synchronized ( getClassLoadingLock(className) ) {
+            Class<?> skeletonClass = findLoadedClass(className);
+            if ( skeletonClass == null ) {
+                byte[] byteCode = loadClassFile(className);
+                if ( byteCode == null ) {
+                    return super.loadClass(className, resolve);
+                }
+                skeletonClass = defineSkeleton(className, byteCode);
+            }
+            if ( resolve ) {
+                resolveClass(skeletonClass);
+            }
+            return skeletonClass;
+        }
     }
 
     @Override
     protected Class<?> findClass(String className) throws ClassNotFoundException {
-        byte[] byteCode;
+        byte[] byteCode = loadClassFile(className);
+        if ( byteCode == null ) {
+            throw new ClassNotFoundException(className);
+        }
+        return defineSkeleton(className, byteCode);
+    }
+
+    private byte[] loadClassFile(String className) throws ClassNotFoundException {
         try {
-            byteCode = classFileLoader.loadClassFile(className);
+            return classFileLoader.loadClassFile(className);
         }
         catch ( IOException e ) {
             throw new ClassNotFoundException("I/O error loading class file for " + className, e);
         }
-        if ( byteCode == null ) {
-            throw new ClassNotFoundException(className);
+    }
+
+    private Class<?> defineSkeleton(String className, byte[] byteCode) {
+        SkeletonCache.Entry skeleton;
+        if ( cache != null ) {
+            byte[] key = cache.key(byteCode);
+            skeleton = cache.load(key);
+            if ( skeleton == null ) {
+                skeleton = generate(className, byteCode);
+                cache.store(key, skeleton);
+            }
         }
+        else {
+            skeleton = generate(className, byteCode);
+        }
+        Class<?> skeletonClass = defineClass(className, skeleton.classFile, 0, skeleton.classFile.length);
+        this.lineNumbers.put(skeletonClass, skeleton.lineNumbers);
+        return skeletonClass;
+    }
+
+    static SkeletonCache.Entry generate(String className, byte[] byteCode) {
         ClassReader reader = new ClassReader(byteCode);
-        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
-        ImmutableMap.Builder<Method, Integer> lineNumbers = ImmutableBiMap.builder();
+        // the skeleton methods are straight-line code with fixed maxs (see
+        // SkeletonMethodVisitor), so there's nothing to compute; don't pass the reader
+        // to the writer, copying the constant pool would keep all constants of the
+        // dropped method bodies and nearly double the size of the skeletons
+        ClassWriter writer = new ClassWriter(0);
+        ImmutableMap.Builder<Method, Integer> lineNumbers = ImmutableMap.builder();
         reader.accept(new ClassVisitor(ASM5, writer) {
             @Override
             public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
@@ -85,9 +154,6 @@ final class SkeletonClassLoader extends ClassLoader {
                 }
             }
         }, 0);
-        byte[] skeletonByteCode = writer.toByteArray();
-        Class<?> skeletonClass = defineClass(className, skeletonByteCode, 0, skeletonByteCode.length);
-        this.lineNumbers.put(skeletonClass, lineNumbers.build());
-        return skeletonClass;
+        return new SkeletonCache.Entry(writer.toByteArray(), lineNumbers.build());
     }
 }
@@ -28,12 +28,20 @@ import static org.objectweb.asm.Opcodes.ASM5;
 
 
 /**
+ * Replaces the method body by code that throws a {@link SkeletonInvocationError}.
+ *
+ * The generated code is straight-line code, so it doesn't need any stack map frames
+ * and its maxs are known up front: Two stack slots for the exception (`new`, `dup`) and
+ * the method's arguments as locals. This allows generating skeletons without
+ * `COMPUTE_FRAMES` or `COMPUTE_MAXS`, which would analyse every method.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 class SkeletonMethodVisitor extends MethodVisitor {
 
     private static final Type SKELETON_EXCEPTION = Type.getType(SkeletonInvocationError.class);
     private static final Method SKELETON_EXCEPTION_CONSTRUCTOR = Method.getMethod("void <init>()");
+    private static final int MAX_STACK = 2;
 
     private final GeneratorAdapter gen;
     private int lineNumber = -1;
@@ -57,6 +65,12 @@ class SkeletonMethodVisitor extends MethodVisitor {
         gen.throwException();
     }
 
+    @Override
+    public void visitMaxs(int maxStack, int maxLocals) {
+        // the GeneratorAdapter replaces maxLocals by the size of the arguments
+        super.visitMaxs(MAX_STACK, 0);
+    }
+
     @Override
     public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
     }
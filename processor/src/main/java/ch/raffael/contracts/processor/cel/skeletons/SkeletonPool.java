@@ -15,26 +15,83 @@
  */
 package ch.raffael.contracts.processor.cel.skeletons;
 
-import java.util.Map;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
 
-import com.google.common.collect.MapMaker;
+import org.objectweb.asm.ClassReader;
 
 
 /**
+ * A pool of skeletons, loaded through a {@link ClassFileLoader}.
+ *
+ * Skeletons are memoized without any locking: If two threads miss the same skeleton at
+ * the same time, both of them create one, but only the first one will be stored (it's
+ * the same class anyway, {@link SkeletonClassLoader} loads every class only once).
+ *
+ * {@link #prefetchHierarchy(String)} loads a class and all its supertypes in parallel.
+ * This is faster than loading the class directly, which loads its supertypes one after
+ * the other while defining it.
+ *
+ * A pool may have a parent pool, usually one shared by several modules containing their
+ * dependencies (see {@link SharedSkeletonPools}). Classes found by the pool's own
+ * {@link ClassFileLoader} take precedence, all others are loaded from the parent and
+ * their skeletons are memoized in the parent.
+ *
  * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
  */
 public class SkeletonPool {
 
-    private final Map<String, SkeletonHolder> skeletons = new MapMaker().concurrencyLevel(1).makeMap();
+    private final ConcurrentMap<String, Skeleton> skeletons = new ConcurrentHashMap<>();
 
+    private final SkeletonPool parent;
+    private final ClassFileLoader classFileLoader;
     private final SkeletonClassLoader loader;
 
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+
     public SkeletonPool(ClassFileLoader loader) {
-        this.loader = new SkeletonClassLoader(loader);
+        this(loader, null);
+    }
+
+    /**
+     * @param cache A persistent cache for the generated skeletons, may be `null`.
+     */
+    public SkeletonPool(ClassFileLoader loader, SkeletonCache cache) {
+        this(null, loader, cache);
+    }
+
+    /**
+     * @param parent The parent pool, may be `null`.
+     * @param cache  A persistent cache for the generated skeletons, may be `null`.
+     */
+    public SkeletonPool(SkeletonPool parent, ClassFileLoader loader, SkeletonCache cache) {
+        this.parent = parent;
+        this.classFileLoader = loader;
+        this.loader = new SkeletonClassLoader(parent == null ? null : parent.loader, loader, cache);
     }
 
     public Skeleton get(String className) throws ClassNotFoundException {
-        return skeletons.computeIfAbsent(className, SkeletonHolder::new).get();
+        Skeleton skeleton = skeletons.get(className);
+        if ( skeleton != null ) {
+            hitCount.increment();
+            return skeleton;
+        }
+        missCount.increment();
+        Class<?> skeletonClass = Class.forName(className, false, loader);
+        if ( parent != null && skeletonClass.getClassLoader() == parent.loader ) {
+            skeleton = parent.get(className);
+        }
+        else {
+            skeleton = new Skeleton(skeletonClass);
+        }
+        Skeleton existing = skeletons.putIfAbsent(className, skeleton);
+        return existing == null ? skeleton : existing;
     }
 
     public Skeleton getIfPresent(String className) {
@@ -46,6 +103,18 @@ public class SkeletonPool {
         }
     }
 
+    /**
+     * Load the skeletons of the given class and all its supertypes, loading the
+     * supertypes in parallel. If called from a fork-join pool, the skeletons will be
+     * loaded in that pool, otherwise in the common pool.
+     *
+     * Supertypes that can't be found by the {@link ClassFileLoader} (e.g. JDK classes)
+     * are skipped, the skeleton of the class itself won't be loaded if it can't be found.
+     */
+    public void prefetchHierarchy(String className) {
+        new Prefetch(className, ConcurrentHashMap.<String>newKeySet()).invoke();
+    }
+
     public void clear(String className) {
         skeletons.remove(className);
     }
@@ -58,26 +127,60 @@ public class SkeletonPool {
         return skeleton.equals(getIfPresent(skeleton.className()));
     }
 
-    private class SkeletonHolder {
+    public int size() {
+        return skeletons.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    private final class Prefetch extends RecursiveAction {
 
         private final String className;
-        private volatile Skeleton skeleton = null;
+        private final Set<String> visited;
 
-        private SkeletonHolder(String className) {
+        private Prefetch(String className, Set<String> visited) {
             this.className = className;
+            this.visited = visited;
         }
 
-        public Skeleton get() throws ClassNotFoundException {
-            if ( skeleton == null ) {
-                synchronized ( this ) {
-                    if ( skeleton == null ) {
-                        return new Skeleton(Class.forName(className, false, loader));
+        @Override
+        protected void compute() {
+            if ( skeletons.containsKey(className) || !visited.add(className) ) {
+                return;
+            }
+            ClassReader header;
+            try {
+                byte[] classFile = classFileLoader.loadClassFile(className);
+                if ( classFile == null ) {
+                    if ( parent != null ) {
+                        parent.prefetchHierarchy(className);
                     }
+                    return;
                 }
+                header = new ClassReader(classFile);
             }
-            return skeleton;
+            catch ( IOException | RuntimeException e ) {
+                // leave it to get() to report this
+                return;
+            }
+            int count = (header.getSuperName() == null ? 0 : 1) + header.getInterfaces().length;
+            Prefetch[] supertypes = new Prefetch[count];
+            int i = 0;
+            if ( header.getSuperName() != null ) {
+                supertypes[i++] = new Prefetch(header.getSuperName().replace('/', '.'), visited);
+            }
+            for ( String itf : header.getInterfaces() ) {
+                supertypes[i++] = new Prefetch(itf.replace('/', '.'), visited);
+            }
+            ForkJoinTask.invokeAll(supertypes);
+            getIfPresent(className);
         }
-
     }
 
 }
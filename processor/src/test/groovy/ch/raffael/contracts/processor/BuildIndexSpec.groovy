@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class BuildIndexSpec extends Specification {
+
+    final static byte[] NO_HASH = new byte[0]
+
+    def "Index survives a round trip"() {
+      given:
+        def file = Files.createTempFile('BuildIndexSpec', '.dat')
+        def index = new BuildIndex()
+        index.put(entry('a/Base', 'base', []))
+        index.put(entry('a/Sub', 'sub', ['a/Base']))
+
+      when:
+        index.save(file)
+        def loaded = BuildIndex.load(file, null)
+
+      then:
+        loaded.classNames() == ['a/Base', 'a/Sub'] as Set
+        loaded.get('a/Sub').supertypes == ['a/Base']
+        loaded.get('a/Sub').hasClassHash(hash('sub'))
+        loaded.get('a/Base').hasTimestamp(42, 4)
+
+      cleanup:
+        Files.deleteIfExists(file)
+    }
+
+    def "Missing index files result in an empty index"() {
+      given:
+        def log = Mock(Log)
+
+      when:
+        def index = BuildIndex.load(Files.createTempDirectory('BuildIndexSpec').resolve('missing.dat'), log)
+
+      then:
+        index.size() == 0
+        0 * log._
+    }
+
+    def "Unreadable index files result in an empty index"() {
+      given:
+        def file = Files.createTempFile('BuildIndexSpec', '.dat')
+        def index = new BuildIndex()
+        index.put(entry('a/Base', 'base', []))
+        index.put(entry('a/Sub', 'sub', ['a/Base']))
+        index.save(file)
+        def bytes = Files.readAllBytes(file)
+        def log = Mock(Log)
+
+      when:
+        file.bytes = content.call(bytes)
+        def loaded = BuildIndex.load(file, log)
+
+      then:
+        loaded.size() == 0
+        1 * log.warn({ it.startsWith('Ignoring unreadable build index') }, *_)
+
+      cleanup:
+        Files.deleteIfExists(file)
+
+      where:
+        content << [
+                { byte[] bytes -> Arrays.copyOf(bytes, bytes.length - 10) },
+                { byte[] bytes -> new byte[0] },
+                { byte[] bytes -> 'not an index'.bytes } ]
+    }
+
+    def "Changed contracts of supertypes change the input hash"() {
+      given:
+        def index = new BuildIndex()
+        index.put(entry('a/Base', 'base', []))
+        index.put(entry('a/Sub', 'sub', ['a/Base', 'java/lang/Runnable']))
+        def before = index.inputHash('a/Sub', hash('sub'))
+
+      when:
+        index.put(new BuildIndex.Entry('a/Base', 0, 0, hash('base'), hash('changed'), [], NO_HASH))
+
+      then:
+        before != index.inputHash('a/Sub', hash('sub'))
+    }
+
+    private static BuildIndex.Entry entry(String className, String content, List<String> supertypes) {
+        new BuildIndex.Entry(className, 42, content.length(), hash(content), hash(content + ':contracts'), supertypes, NO_HASH)
+    }
+
+    private static byte[] hash(String content) {
+        BuildIndex.classHash(content.bytes)
+    }
+
+}
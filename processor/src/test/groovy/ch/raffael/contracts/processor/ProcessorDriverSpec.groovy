@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor
+
+import ch.raffael.contracts.Contract
+import ch.raffael.contracts.processor.cel.ClauseCache
+import ch.raffael.contracts.processor.cel.skeletons.ClassFileLoader
+import ch.raffael.contracts.processor.cel.skeletons.SkeletonPool
+import org.objectweb.asm.ClassWriter
+import org.objectweb.asm.Opcodes
+import org.objectweb.asm.Type
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+
+import static ch.raffael.contracts.processor.ProcessorDriver.Result.Status.*
+
+
+/**
+ * Runs the driver incrementally on a temporary classes directory. The class files are
+ * generated with ASM, declaring their contracts on class level.
+ *
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ProcessorDriverSpec extends Specification {
+
+    final Path classes = Files.createTempDirectory('ProcessorDriverSpec')
+    final Path indexFile = classes.resolveSibling(classes.fileName.toString() + '.index')
+
+    def cleanup() {
+        classes.toFile().deleteDir()
+        Files.deleteIfExists(indexFile)
+    }
+
+    def "Only failed classes are processed again if nothing changed"() {
+      given:
+        writeClass('a/Base', 'java/lang/Object', 'x > 0')
+        writeClass('a/Sub', 'a/Base', 'y > 0')
+        writeClass('a/Plain', 'java/lang/Object', null)
+        writeClass('a/Broken', 'java/lang/Object', 'a +')
+
+      when:
+        def first = run()
+
+      then:
+        statuses(first) == ['a/Base': CHECKED, 'a/Broken': FAILED, 'a/Plain': SKIPPED, 'a/Sub': CHECKED]
+        !first.find { it.className == 'a/Broken' }.problems.empty
+
+      when:
+        def second = run()
+
+      then:
+        statuses(second) == ['a/Base': UP_TO_DATE, 'a/Broken': FAILED, 'a/Plain': UP_TO_DATE, 'a/Sub': UP_TO_DATE]
+    }
+
+    def "Companion classes are deleted with their classes"() {
+      given:
+        writeClass('a/Base', 'java/lang/Object', 'x > 0')
+        writeClass('a/Sub', 'a/Base', 'y > 0')
+        run()
+        def companion = ProcessorDriver.companionFile(classFile('a/Sub'))
+        companion.bytes = new byte[0]
+
+      when:
+        Files.delete(classFile('a/Sub'))
+        def results = run()
+
+      then:
+        statuses(results) == ['a/Base': UP_TO_DATE]
+        !Files.exists(companion)
+    }
+
+    def "Changed contracts of a supertype make its subclasses stale"() {
+      given:
+        writeClass('a/Base', 'java/lang/Object', 'x > 0')
+        writeClass('a/Sub', 'a/Base', 'y > 0')
+        writeClass('a/SubSub', 'a/Sub', null)
+        writeClass('a/Other', 'java/lang/Object', 'z > 0')
+        run()
+
+      when:
+        writeClass('a/Base', 'java/lang/Object', 'x > 1')
+        def results = run()
+
+      then:
+        statuses(results) == ['a/Base': CHECKED, 'a/Other': UP_TO_DATE, 'a/Sub': CHECKED, 'a/SubSub': SKIPPED]
+    }
+
+    private List<ProcessorDriver.Result> run() {
+        def loader = { String name ->
+            def file = classes.resolve(name.replace('.', '/') + '.class')
+            if ( Files.exists(file) ) {
+                return file.bytes
+            }
+            ProcessorDriverSpec.classLoader.getResourceAsStream(name.replace('.', '/') + '.class')?.withStream { it.bytes }
+        } as ClassFileLoader
+        def driver = new ProcessorDriver(classes, new SkeletonPool(loader), new ClauseCache())
+        driver.indexFile = indexFile
+        return driver.run()
+    }
+
+    private Path classFile(String name) {
+        classes.resolve(name + '.class')
+    }
+
+    private void writeClass(String name, String superName, String contract) {
+        def writer = new ClassWriter(0)
+        writer.visit(Opcodes.V1_7, Opcodes.ACC_PUBLIC, name, null, superName, null)
+        if ( contract != null ) {
+            def annotation = writer.visitAnnotation(Type.getDescriptor(Contract), true)
+            annotation.visit('value', contract)
+            annotation.visitEnd()
+        }
+        writer.visitEnd()
+        def file = classFile(name)
+        def previous = Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0
+        Files.createDirectories(file.parent)
+        file.bytes = writer.toByteArray()
+        // make sure the time stamp changes, even if the size doesn't
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Math.max(previous + 10000, System.currentTimeMillis())))
+    }
+
+    private static Map<String, ProcessorDriver.Result.Status> statuses(List<ProcessorDriver.Result> results) {
+        results.collectEntries { [it.className, it.status] }
+    }
+
+}
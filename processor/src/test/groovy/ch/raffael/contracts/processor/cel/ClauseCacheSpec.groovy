@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2013 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel
+
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ClauseCacheSpec extends Specification {
+
+    final static LOCATION = new Location('ClauseCacheSpec', 1, 0)
+
+    final ClauseCache cache = new ClauseCache(10)
+
+    def "Expressions are parsed once and shared"() {
+      when:
+        def first = cache.parse(LOCATION, 'a + b > c.d')
+        def second = cache.parse(LOCATION, 'a + b > c.d')
+
+      then:
+        first.is(second)
+        first.frozen
+        cache.stats.hitCount() == 1
+        cache.stats.missCount() == 1
+    }
+
+    def "Cached ASTs cannot be modified"() {
+      given:
+        def clause = cache.parse(LOCATION, 'a + b')
+
+      when:
+        clause.addError(new CelError(new Position(1, 0), 'test'))
+
+      then:
+        thrown(IllegalStateException)
+    }
+
+    def "Expressions with errors are not cached"() {
+      when:
+        cache.parse(LOCATION, 'a +')
+
+      then:
+        thrown(ParseException)
+        cache.size() == 0
+    }
+
+}
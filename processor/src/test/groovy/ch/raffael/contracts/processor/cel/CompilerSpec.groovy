@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel
+
+import ch.raffael.contracts.processor.cel.Compiler
+import spock.lang.Specification
+
+import static ch.raffael.contracts.processor.cel.Compiler.Strategy.LL
+import static ch.raffael.contracts.processor.cel.Compiler.Strategy.SLL_THEN_LL
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class CompilerSpec extends Specification {
+
+    final static LOCATION = new Location('CompilerSpec', 1, 0)
+
+    def "Valid expressions result in the same AST using either strategy"() {
+      when:
+        def ll = compiler(expression, LL).parse()
+        def sll = compiler(expression, SLL_THEN_LL).parse()
+
+      then:
+        ll != null
+        sll == ll
+
+      where:
+        expression << [
+                'a + b',
+                'a.c(x) + b',
+                'a > 0 -> b >= c',
+                'x.y[i] * 2 < z.size()',
+                '!a || b && c',
+                'a ? b : c - 1' ]
+    }
+
+    def "Invalid expressions result in the same errors using either strategy"() {
+      when:
+        def ll = errors(expression, LL)
+        def sll = errors(expression, SLL_THEN_LL)
+
+      then:
+        !ll.empty
+        sll == ll
+
+      where:
+        expression << [
+                'a +',
+                'a b (c d)',
+                'a + * b',
+                'a.' ]
+    }
+
+    def "Failed parses don't affect later ones"() {
+      given:
+        def first = errors('a b (c d)', SLL_THEN_LL)
+
+      expect:
+        compiler('a + b', SLL_THEN_LL).parse() == compiler('a + b', LL).parse()
+        errors('a b (c d)', SLL_THEN_LL) == first
+    }
+
+    def "Lexer errors in the SLL stage fall back to LL"() {
+      when:
+        compiler('a + @b', strategy).parse()
+
+      then:
+        def e = thrown(ParseException)
+        e.errors.size() == 1
+        e.errors[0].position == new Position(1, 4)
+        e.errors[0].message.startsWith('token recognition error')
+
+      where:
+        strategy << [LL, SLL_THEN_LL]
+    }
+
+    private static Compiler compiler(String expression, Compiler.Strategy strategy) {
+        def compiler = new Compiler(LOCATION, expression)
+        compiler.strategy = strategy
+        return compiler
+    }
+
+    private static List<String> errors(String expression, Compiler.Strategy strategy) {
+        try {
+            compiler(expression, strategy).parse()
+            return []
+        }
+        catch ( ParseException e ) {
+            return e.errors*.toString()
+        }
+    }
+
+}
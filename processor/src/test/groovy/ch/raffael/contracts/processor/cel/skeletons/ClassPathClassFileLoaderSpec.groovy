@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class ClassPathClassFileLoaderSpec extends Specification {
+
+    final Path dir = Files.createTempDirectory('ClassPathClassFileLoaderSpec')
+
+    def cleanup() {
+        dir.toFile().deleteDir()
+    }
+
+    def "Stored and deflated entries are read from jar files"() {
+      given:
+        def jar = jar('test.jar', ['a/Stored.class': 'stored' * 100], ['a/Deflated.class': 'deflated' * 100])
+        def loader = new ClassPathClassFileLoader([jar])
+
+      expect:
+        new String(loader.loadClassFile('a.Stored'), 'UTF-8') == 'stored' * 100
+        new String(loader.loadClassFile('a.Deflated'), 'UTF-8') == 'deflated' * 100
+        loader.loadClassFile('a.Missing') == null
+        loader.indexedClassCount == 2
+    }
+
+    def "Earlier class path entries take precedence"() {
+      given:
+        def jar = jar('test.jar', [:], ['a/A.class': 'jar'])
+        def classes = dir.resolve('classes')
+        Files.createDirectories(classes.resolve('a'))
+        classes.resolve('a/A.class').text = 'directory'
+
+      expect:
+        new String(new ClassPathClassFileLoader([classes, jar]).loadClassFile('a.A'), 'UTF-8') == 'directory'
+        new String(new ClassPathClassFileLoader([jar, classes]).loadClassFile('a.A'), 'UTF-8') == 'jar'
+    }
+
+    def "Missing class path entries are ignored"() {
+      when:
+        def loader = new ClassPathClassFileLoader([dir.resolve('missing.jar'), dir.resolve('missing')])
+
+      then:
+        loader.loadClassFile('a.A') == null
+    }
+
+    private Path jar(String name, Map<String, String> stored, Map<String, String> deflated) {
+        def file = dir.resolve(name)
+        new ZipOutputStream(Files.newOutputStream(file)).withStream { zip ->
+            stored.each { path, content ->
+                def bytes = content.getBytes('UTF-8')
+                def crc = new CRC32()
+                crc.update(bytes)
+                def entry = new ZipEntry(path)
+                entry.method = ZipEntry.STORED
+                entry.size = bytes.length
+                entry.compressedSize = bytes.length
+                entry.crc = crc.value
+                zip.putNextEntry(entry)
+                zip.write(bytes)
+            }
+            deflated.each { path, content ->
+                zip.putNextEntry(new ZipEntry(path))
+                zip.write(content.getBytes('UTF-8'))
+            }
+        }
+        return file
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons
+
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.FileTime
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class SharedSkeletonPoolsSpec extends Specification {
+
+    final Path dir = Files.createTempDirectory('SharedSkeletonPoolsSpec')
+
+    def cleanup() {
+        SharedSkeletonPools.clearIdle()
+        dir.toFile().deleteDir()
+    }
+
+    def "Builds using the same jars share the pool"() {
+      given:
+        def jars = [jar('a.jar'), jar('b.jar')]
+
+      when:
+        def first = SharedSkeletonPools.acquire(jars, null)
+        def second = SharedSkeletonPools.acquire(jars, null)
+        def other = SharedSkeletonPools.acquire(jars.reverse(), null)
+
+      then:
+        second.pool.is(first.pool)
+        !first.reused
+        second.reused
+        !other.pool.is(first.pool)
+
+      cleanup:
+        [first, second, other]*.close()
+    }
+
+    def "Unused pools are kept for later builds"() {
+      given:
+        def jars = [jar('a.jar')]
+        def first = SharedSkeletonPools.acquire(jars, null)
+        def pool = first.pool
+        first.close()
+
+      when:
+        def second = SharedSkeletonPools.acquire(jars, null)
+
+      then:
+        second.reused
+        second.pool.is(pool)
+
+      cleanup:
+        second.close()
+    }
+
+    def "Changed jars result in a new pool"() {
+      given:
+        def jar = jar('a.jar')
+        def first = SharedSkeletonPools.acquire([jar], null)
+
+      when:
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() - 10000))
+        def second = SharedSkeletonPools.acquire([jar], null)
+
+      then:
+        !second.reused
+        !second.pool.is(first.pool)
+
+      cleanup:
+        [first, second]*.close()
+    }
+
+    def "Builds using different skeleton caches don't share the pool"() {
+      given:
+        def jars = [jar('a.jar')]
+        def cacheA = new SkeletonCache(dir.resolve('cache-a'))
+        def cacheB = new SkeletonCache(dir.resolve('cache-b'))
+
+      when:
+        def withoutCache = SharedSkeletonPools.acquire(jars, null)
+        def first = SharedSkeletonPools.acquire(jars, cacheA)
+        def second = SharedSkeletonPools.acquire(jars, new SkeletonCache(dir.resolve('cache-a')))
+        def other = SharedSkeletonPools.acquire(jars, cacheB)
+
+      then:
+        !first.reused
+        !first.pool.is(withoutCache.pool)
+        second.reused
+        second.pool.is(first.pool)
+        !other.reused
+        !other.pool.is(first.pool)
+
+      cleanup:
+        [withoutCache, first, second, other]*.close()
+    }
+
+    private Path jar(String name) {
+        def file = dir.resolve(name)
+        new ZipOutputStream(Files.newOutputStream(file)).withStream { zip ->
+            zip.putNextEntry(new ZipEntry('META-INF/MANIFEST.MF'))
+            zip.write('Manifest-Version: 1.0\n'.getBytes('UTF-8'))
+        }
+        return file
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons
+
+import org.objectweb.asm.commons.Method
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.Path
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class SkeletonCacheSpec extends Specification {
+
+    final static byte[] SKELETON = 'skeleton class file'.bytes
+
+    final Path dir = Files.createTempDirectory('SkeletonCacheSpec')
+    final byte[] original = 'original class file'.bytes
+    final SkeletonCache.Entry entry = new SkeletonCache.Entry(SKELETON, [(new Method('foo', '(I)V')): 42, (new Method('bar', '()V')): 23])
+
+    def cleanup() {
+        dir.toFile().deleteDir()
+    }
+
+    def "Skeletons survive a round trip"() {
+      given:
+        def cache = new SkeletonCache(dir, '1.0', SkeletonCache.FORMAT_VERSION)
+
+      when:
+        cache.store(cache.key(original), entry)
+        def loaded = new SkeletonCache(dir, '1.0', SkeletonCache.FORMAT_VERSION).load(cache.key(original))
+
+      then:
+        loaded.classFile == entry.classFile
+        loaded.lineNumbers == entry.lineNumbers
+        cache.load(cache.key('other class file'.bytes)) == null
+        cache.hitCount == 0
+        cache.missCount == 1
+    }
+
+    def "Corrupt entries are missed"() {
+      given:
+        def cache = new SkeletonCache(dir, '1.0', SkeletonCache.FORMAT_VERSION)
+        cache.store(cache.key(original), entry)
+        def file = entryFile()
+        def bytes = Files.readAllBytes(file)
+
+      when:
+        file.bytes = content.call(bytes)
+
+      then:
+        cache.load(cache.key(original)) == null
+        cache.missCount == 1
+
+      where:
+        content << [
+                { byte[] bytes -> Arrays.copyOf(bytes, bytes.length - 5) },
+                { byte[] bytes -> new byte[0] },
+                { byte[] bytes -> 'not a skeleton'.bytes },
+                { byte[] bytes -> withLength(bytes, -1) },
+                { byte[] bytes -> withLength(bytes, Integer.MAX_VALUE) } ]
+    }
+
+    def "Entries of other processor or format versions are missed"() {
+      given:
+        def cache = new SkeletonCache(dir, '1.0', SkeletonCache.FORMAT_VERSION)
+        cache.store(cache.key(original), entry)
+
+      when:
+        def other = new SkeletonCache(dir, processorVersion, formatVersion)
+
+      then:
+        other.load(other.key(original)) == null
+        cache.load(cache.key(original)) != null
+
+      where:
+        processorVersion | formatVersion
+        '1.1'            | SkeletonCache.FORMAT_VERSION
+        '1.0'            | SkeletonCache.FORMAT_VERSION + 1
+    }
+
+    private Path entryFile() {
+        def files = Files.walk(dir).findAll { Files.isRegularFile(it) }
+        assert files.size() == 1
+        files[0]
+    }
+
+    /**
+     * Replace the length of the skeleton's class file, which precedes it.
+     */
+    private static byte[] withLength(byte[] bytes, int length) {
+        def pos = bytes.length - SKELETON.length - 4
+        def result = bytes.clone()
+        result[pos] = (byte)(length >>> 24)
+        result[pos + 1] = (byte)(length >>> 16)
+        result[pos + 2] = (byte)(length >>> 8)
+        result[pos + 3] = (byte)length
+        result
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2012-2014 Raffael Herzog
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ch.raffael.contracts.processor.cel.skeletons
+
+import ch.raffael.contracts.ContractViolationError
+import spock.lang.Specification
+
+
+/**
+ * @author <a href="mailto:herzog@raffael.ch">Raffael Herzog</a>
+ */
+class SkeletonPoolSpec extends Specification {
+
+    final SkeletonPool pool = new SkeletonPool({ String name ->
+        SkeletonPoolSpec.classLoader.getResourceAsStream(name.replace('.', '/') + '.class')?.withStream { it.bytes }
+    } as ClassFileLoader)
+
+    def "Skeletons are memoized"() {
+      when:
+        def first = pool.get(ContractViolationError.name)
+        def second = pool.get(ContractViolationError.name)
+
+      then:
+        first.is(second)
+        pool.missCount == 1
+        pool.hitCount == 1
+    }
+
+    def "Prefetching a hierarchy loads all supertypes"() {
+      when:
+        pool.prefetchHierarchy(ContractViolationError.name)
+        def misses = pool.missCount
+        pool.get(ContractViolationError.name)
+        pool.get(Error.name)
+        pool.get(Throwable.name)
+
+      then:
+        pool.missCount == misses
+        pool.hitCount == 3
+    }
+
+}